@@ -12,19 +12,23 @@ import java.util.ArrayList;
 public class AAXTree<Key extends Comparable<Key>, Value> {
 
 	private Node root;
+	private Metrics metrics = Metrics.NONE; // see setMetrics
+	private Node cleared; // the tree removed by clear, whose nodes build reuses
+	private final ArrayList<InternalNode> spareInternal = new ArrayList<InternalNode>(); // (see build)
+	private final ArrayList<ExternalNode> spareExternal = new ArrayList<ExternalNode>();
 	private abstract class Node {
 		
 		// -----------------------------------------------------------------
 		// Standard dictionary helpers
 		// -----------------------------------------------------------------
 		
-		abstract Value find(Key x);
+		abstract Value find(Key x, Metrics.Probe p);
 		
-		abstract Node insert(Key x, Value v) throws Exception;
+		abstract Node insert(Key x, Value v, Metrics.Probe p) throws Exception;
 		
-		abstract Node delete(Key x) throws Exception;
+		abstract Node delete(Key x, Metrics.Probe p) throws Exception;
 		
-		abstract void replace(Key x, Value v) throws Exception;
+		abstract void replace(Key x, Value v, Metrics.Probe p) throws Exception;
 		
 		abstract ArrayList<String> getPreorderList(); // list entries in preorder
 		
@@ -33,13 +37,13 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		// Rebalancing utilities
 		// -----------------------------------------------------------------
 		
-		abstract Node skew();
+		abstract Node skew(Metrics.Probe p);
 		
-		abstract Node split();
+		abstract Node split(Metrics.Probe p);
 		
 		abstract void updateLevel(); // update level (ignored if external)
 
-		abstract Node fixAfterDelete(); // fix structures after deletion (ignored if external)
+		abstract Node fixAfterDelete(Metrics.Probe p); // fix structures after deletion (ignored if external)
 		
 		// -----------------------------------------------------------------
 		// Accessors
@@ -78,31 +82,33 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 			this.right = right;
 		}
 
-		Value find(Key x) {
+		Value find(Key x, Metrics.Probe p) {
 			if (this.equals(left) && this.equals(right)) {
-				return this.find(x);
+				return this.find(x, p);
 			}
-			if (x.compareTo(key) < 0) {
-				return getLeft().find(x);
+			if (compare(x, key, p) < 0) {
+				return getLeft().find(x, p);
 			} else 
-				return getRight().find(x);
+				return getRight().find(x, p);
 		}
 
 		@Override
-		Node insert(Key x, Value v) throws Exception {
-			if (x.compareTo(this.key) < 0) 
-				setLeft (getLeft().insert (x, v));
-			else if (x.compareTo(key) >= 0)
-				setRight (getRight().insert (x, v));
-			return skew().split();
+		Node insert(Key x, Value v, Metrics.Probe p) throws Exception {
+			if (compare(x, this.key, p) < 0) 
+				setLeft (getLeft().insert (x, v, p));
+			else if (compare(x, key, p) >= 0)
+				setRight (getRight().insert (x, v, p));
+			return skew(p).split(p);
 		}
 
 		/**
 		 * Right skew a node. If the left child has same level as us, perform a right
 		 * rotation.
 		 */
-		Node skew() {
+		Node skew(Metrics.Probe p) {
 			if (getLeft().getLevel() == getLevel()) {
+				if (Metrics.ENABLED)
+					p.rotations++;
 				Node q = getLeft();
 				setLeft (q.getRight());
 				q.setRight(this);
@@ -115,8 +121,10 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		 * Split a node. If the right-right grandchild is at the same level, promote our
 		 * right child to the next higher level.
 		 */
-		Node split() {
+		Node split(Metrics.Probe p) {
 			if (right.getRight().getLevel() == level) {
+				if (Metrics.ENABLED)
+					p.rotations++;
 				Node q = getRight();
 				setRight (q.getLeft());
 				q.setLeft(this);
@@ -139,25 +147,25 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 			return list;
 		}
 		
-		Node delete(Key x) throws Exception {
+		Node delete(Key x, Metrics.Probe p) throws Exception {
 			Node result;
-			if (x.compareTo(getKey()) < 0) 
-				result = getLeft().delete(x);
+			if (compare(x, getKey(), p) < 0) 
+				result = getLeft().delete(x, p);
 			else 
-				result = getRight().delete(x);
+				result = getRight().delete(x, p);
 			if (result == null) {
-				if (x.compareTo(getKey()) < 0)
+				if (compare(x, getKey(), p) < 0)
 					return getRight();
 				else
 					return getLeft();
 			} else {
-				if (x.compareTo(getKey()) < 0) {
+				if (compare(x, getKey(), p) < 0) {
 					setLeft(result);
-					return fixAfterDelete();
+					return fixAfterDelete(p);
 				}
 				else {
 					setRight(result);
-					return fixAfterDelete();
+					return fixAfterDelete(p);
 				}
 			}
 		}
@@ -166,14 +174,14 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		 * Fix local structure after deletion. (See references on AA trees for an
 		 * explanation of this combination of operations.)
 		 */
-		Node fixAfterDelete() {	
+		Node fixAfterDelete(Metrics.Probe p) {	
 			updateLevel();
 			Node node = this;
-			node = skew();
-			node.setRight(node.getRight().skew());
-			node.getRight().setRight(node.getRight().getRight().skew());
-			node = node.split();
-			node.setRight(node.getRight().split());
+			node = skew(p);
+			node.setRight(node.getRight().skew(p));
+			node.getRight().setRight(node.getRight().getRight().skew(p));
+			node = node.split(p);
+			node.setRight(node.getRight().split(p));
 			return node;
 		}
 
@@ -189,11 +197,11 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 			}
 		}
 		
-		void replace(Key x, Value v) throws Exception {
-			if (x.compareTo(key) < 0) // x < key
-				left.replace(x, v); // ... search left
+		void replace(Key x, Value v, Metrics.Probe p) throws Exception {
+			if (compare(x, key, p) < 0) // x < key
+				left.replace(x, v, p); // ... search left
 			else // x >= key
-				right.replace(x, v);
+				right.replace(x, v, p);
 		}
 		
 		/*
@@ -261,8 +269,8 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		/**
 		 * Find a key.
 		 */
-		Value find(Key x) {
-			if (x.compareTo(this.key) == 0)
+		Value find(Key x, Metrics.Probe p) {
+			if (compare(x, this.key, p) == 0)
 				return this.value;
 			else
 				return null;
@@ -275,10 +283,10 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		 * internal node between them.
 		 */
 		@Override
-		Node insert(Key x, Value v) throws Exception{
-			if (x.compareTo(this.key) == 0) 
+		Node insert(Key x, Value v, Metrics.Probe probe) throws Exception{
+			if (compare(x, this.key, probe) == 0) 
 				throw new Exception("Insertion of duplicate key");
-			else if (x.compareTo(this.key) < 0) {
+			else if (compare(x, this.key, probe) < 0) {
 				InternalNode p = new InternalNode(this.getKey(), 1, null, null);
 				ExternalNode q = new ExternalNode(x,v);
 				p.setLeft(q);
@@ -305,8 +313,8 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		/**
 		 * Delete a key. We simply unlink this node and return null;
 		 */
-		Node delete(Key x) throws Exception{
-			if(x.compareTo(getKey()) != 0)
+		Node delete(Key x, Metrics.Probe p) throws Exception{
+			if(compare(x, getKey(), p) != 0)
 				throw new Exception("Deletion of nonexistent key");
 			else {
 				return null;
@@ -318,8 +326,8 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 			return this.value;
 		}
 		
-		void replace(Key x, Value v) throws Exception {
-			if (x.compareTo(key) == 0)
+		void replace(Key x, Value v, Metrics.Probe p) throws Exception {
+			if (compare(x, key, p) == 0)
 				this.value = v;
 			else
 				throw new Exception("Replacement of nonexistent key");
@@ -331,12 +339,12 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		// Rebalancing utilities - Do nothing for external nodes
 		// -----------------------------------------------------------------
 		@Override
-		Node skew() {
+		Node skew(Metrics.Probe p) {
 			return this;
 		}
 
 		@Override
-		Node split() {
+		Node split(Metrics.Probe p) {
 			return this;
 		}
 		
@@ -344,7 +352,7 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 			return;
 		}
 
-		Node fixAfterDelete() {
+		Node fixAfterDelete(Metrics.Probe p) {
 			return this;
 		}
 		
@@ -409,8 +417,11 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 	public Value find(Key k) {
 		if (root == null)
 			return null;
-		else
-			return root.find(k);
+		Metrics.Probe p = Metrics.probe();
+		Value result = root.find(k, p);
+		if (Metrics.ENABLED)
+			metrics.record("locator.find.comparisons", p.comparisons);
+		return result;
 	}
 	
 	/**
@@ -424,18 +435,103 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		if (root == null) 
 			this.root = new ExternalNode(x,v);
 		else {
-			this.root = root.insert(x,v);
+			Metrics.Probe p = Metrics.probe();
+			this.root = root.insert(x,v,p);
+			if (Metrics.ENABLED) {
+				metrics.record("locator.insert.comparisons", p.comparisons);
+				metrics.record("locator.insert.rotations", p.rotations);
+			}
 		}
 	}
 	
 	/**
-	 * Clear the tree, removing all entries.
+	 * Clear the tree, removing all entries. The nodes are kept until the next
+	 * build, which reuses them.
 	 *
 	 */
 	public void clear() { 
+		if (root != null)
+			cleared = root;
 		root = null;
 	}
 	
+	/**
+	 * Replace the contents of the tree with the given entries in O(n) time. The
+	 * keys must be in strictly increasing order. The result is the same as
+	 * inserting the entries one by one, but without any rebalancing: each
+	 * subtree of n leaves puts floor(n/2) of them on the left, so that the level
+	 * of its root is floor(log2 n) and all AA-tree invariants hold. The nodes
+	 * of the tree it replaces (or of the one removed by the last clear) are
+	 * reused, so rebuilding a tree of the same size allocates no nodes.
+	 *
+	 * @param keys The keys (strictly increasing)
+	 * @param values The associated values
+	 * @throws Exception If the keys are not strictly increasing
+	 */
+	public void build(ArrayList<Key> keys, ArrayList<Value> values) throws Exception {
+		if (keys.size() != values.size())
+			throw new Exception("Mismatched keys and values");
+		for (int i = 1; i < keys.size(); i++) {
+			if (keys.get(i - 1).compareTo(keys.get(i)) >= 0)
+				throw new Exception("Insertion of duplicate key");
+		}
+		recycle(root);
+		recycle(cleared);
+		cleared = null;
+		root = (keys.isEmpty() ? null : build(keys, values, 0, keys.size()));
+		spareInternal.clear(); // (the unused ones)
+		spareExternal.clear();
+	}
+
+	/**
+	 * helper method for build: builds the subtree for entries [lo, hi)
+	 */
+	private Node build(ArrayList<Key> keys, ArrayList<Value> values, int lo, int hi) {
+		if (hi - lo == 1) {
+			if (spareExternal.isEmpty())
+				return new ExternalNode(keys.get(lo), values.get(lo));
+			ExternalNode leaf = spareExternal.remove(spareExternal.size() - 1);
+			leaf.key = keys.get(lo);
+			leaf.value = values.get(lo);
+			return leaf;
+		}
+		int mid = lo + (hi - lo) / 2; // left gets floor(n/2) entries
+		Node left = build(keys, values, lo, mid);
+		Node right = build(keys, values, mid, hi);
+		// internal nodes hold the smallest key of their right subtree
+		if (spareInternal.isEmpty())
+			return new InternalNode(keys.get(mid), left.getLevel() + 1, left, right);
+		InternalNode node = spareInternal.remove(spareInternal.size() - 1);
+		node.key = keys.get(mid);
+		node.level = left.getLevel() + 1;
+		node.left = left;
+		node.right = right;
+		return node;
+	}
+
+	/**
+	 * helper method for build: adds the nodes of a subtree to the spare
+	 * lists (breadth first, with the list of internal nodes as the queue)
+	 */
+	private void recycle(Node p) {
+		if (p == null)
+			return;
+		int k = spareInternal.size();
+		spare(p);
+		for (; k < spareInternal.size(); k++) {
+			InternalNode q = spareInternal.get(k);
+			spare(q.left);
+			spare(q.right);
+		}
+	}
+
+	private void spare(Node p) {
+		if (p instanceof AAXTree.InternalNode)
+			spareInternal.add((InternalNode) p);
+		else
+			spareExternal.add((ExternalNode) p);
+	}
+	
 	/**
 	 * Get a list of entries in preorder
 	 *
@@ -469,8 +565,12 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 	public void delete(Key x) throws Exception {
 		if (root == null)
 			throw new Exception("Deletion of nonexistent key");
-		else
-			root = root.delete(x);
+		Metrics.Probe p = Metrics.probe();
+		root = root.delete(x, p);
+		if (Metrics.ENABLED) {
+			metrics.record("locator.delete.comparisons", p.comparisons);
+			metrics.record("locator.delete.rotations", p.rotations);
+		}
 	}
 	
 	/**
@@ -662,8 +762,31 @@ public class AAXTree<Key extends Comparable<Key>, Value> {
 		if (root == null) {
 			throw new Exception("Replacement of nonexistent key");
 		} else {
-			root.replace(k, v);
+			Metrics.Probe p = Metrics.probe();
+			root.replace(k, v, p);
+			if (Metrics.ENABLED)
+				metrics.record("locator.replace.comparisons", p.comparisons);
 		}
 	}
+	
+	/**
+	 * Sets the sink of the per-operation work of find, insert, delete and
+	 * replace: key comparisons, and rotations made by skew and split when
+	 * rebalancing (see Metrics; nothing is counted unless Metrics.ENABLED).
+	 *
+	 * @param metrics The sink, or null for none
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = (metrics == null ? Metrics.NONE : metrics);
+	}
+	
+	/**
+	 * compareTo, counted as a comparison
+	 */
+	private int compare(Key x, Key y, Metrics.Probe p) {
+		if (Metrics.ENABLED)
+			p.comparisons++;
+		return x.compareTo(y);
+	}
 
 }
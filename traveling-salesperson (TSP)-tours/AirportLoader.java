@@ -0,0 +1,257 @@
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * AirportLoader
+ *
+ * Loads airports from comma-separated files such as the OpenFlights
+ * airports.dat, e.g.
+ *
+ *   1,"Goroka Airport","Goroka","Papua New Guinea","GKA","AYGA",-6.0816,145.3919,...
+ *
+ * The file is memory-mapped and cut into chunks of about CHUNK_BYTES that
+ * end on record boundaries, and the chunks are parsed in parallel. Each
+ * chunk is copied once into a byte array and parsed in place: coordinates
+ * are converted straight from the bytes and the only strings created are
+ * the four kept for each Airport. Records are returned in file order, so
+ * feeding them to Tour.appendAll gives the same tour as appending them one
+ * by one.
+ *
+ * Records without a code ("" or "\N"), or whose coordinates cannot be
+ * parsed (e.g. a header line), are skipped and counted in the returned
+ * list. A loader keeps no state between loads, so one loader (such as
+ * OPENFLIGHTS) may load several files at once.
+ */
+public class AirportLoader {
+
+	private static final int CHUNK_BYTES = 1 << 22; // nominal chunk size (4 MB)
+
+	// column layout of OpenFlights airports.dat
+	public static final AirportLoader OPENFLIGHTS = new AirportLoader(4, 1, 2, 3, 7, 6);
+
+	private final int codeCol, nameCol, cityCol, countryCol, lonCol, latCol; // column indices
+	private final int columns; // number of columns needed
+
+	/**
+	 * The airports of one file, in file order, with the number of records
+	 * skipped.
+	 */
+	public static class Airports extends ArrayList<Airport> {
+		private static final long serialVersionUID = 1L;
+		private int skipped;
+
+		private Airports(int capacity) {
+			super(capacity);
+		}
+
+		/**
+		 * Number of records skipped (blank lines are not counted).
+		 */
+		public int getSkipped() { return skipped; }
+	}
+
+	/**
+	 * Constructor for a given column layout (0-based column indices).
+	 */
+	public AirportLoader(int codeCol, int nameCol, int cityCol, int countryCol, int lonCol, int latCol) {
+		this.codeCol = codeCol;
+		this.nameCol = nameCol;
+		this.cityCol = cityCol;
+		this.countryCol = countryCol;
+		this.lonCol = lonCol;
+		this.latCol = latCol;
+		columns = 1 + Math.max(Math.max(Math.max(codeCol, nameCol), Math.max(cityCol, countryCol)),
+				Math.max(lonCol, latCol));
+	}
+
+	/**
+	 * Load all airports of a file, in file order.
+	 *
+	 * @param file The airport file
+	 * @return The airports, and how many records were skipped
+	 */
+	public Airports load(Path file) throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = ch.size();
+			long[] bounds = chunkBounds(ch, size);
+			List<Airports> parts = Arrays.asList(new Airports[bounds.length - 1]);
+			IntStream.range(0, parts.size()).parallel().forEach(k -> {
+				try {
+					byte[] buf = new byte[(int) (bounds[k + 1] - bounds[k])];
+					ch.map(FileChannel.MapMode.READ_ONLY, bounds[k], buf.length).get(buf);
+					parts.set(k, parse(buf));
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			int total = 0;
+			for (Airports part : parts)
+				total += part.size();
+			Airports result = new Airports(total);
+			for (Airports part : parts) {
+				result.addAll(part);
+				result.skipped += part.skipped;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Load a file into a new tour (in file order) with one bulk build of the
+	 * indices. Duplicates are dropped as reported by the returned result.
+	 */
+	public AppendResult<Airport> loadInto(Path file, Tour<Airport> tour) throws Exception {
+		return tour.appendAll(load(file));
+	}
+
+	/**
+	 * Chunk boundaries: every boundary but the first and last is the position
+	 * just after the first newline at or after a multiple of CHUNK_BYTES.
+	 */
+	private static long[] chunkBounds(FileChannel ch, long size) throws Exception {
+		ArrayList<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		long next = CHUNK_BYTES;
+		while (next < size) {
+			int len = (int) Math.min(size - next, 1 << 16);
+			MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, next, len);
+			int k = 0;
+			while (k < len && map.get(k) != '\n')
+				k++;
+			if (k == len) { // no newline in this window: look further
+				next += len;
+				continue;
+			}
+			long pos = next + k + 1; // after the newline
+			if (pos >= size)
+				break;
+			bounds.add(pos);
+			next = pos + CHUNK_BYTES;
+		}
+		bounds.add(size);
+		long[] result = new long[bounds.size()];
+		for (int k = 0; k < result.length; k++)
+			result[k] = bounds.get(k);
+		return result;
+	}
+
+	/**
+	 * Parse the records of one chunk.
+	 */
+	private Airports parse(byte[] buf) {
+		Airports result = new Airports(buf.length / 100);
+		int[] start = new int[columns]; // field bounds (without quotes) of the current record
+		int[] end = new int[columns];
+		boolean[] quoted = new boolean[columns];
+		int pos = 0;
+		while (pos < buf.length) {
+			// split one record into fields
+			int field = 0;
+			boolean done = false;
+			while (!done) {
+				int s = pos, e = pos;
+				boolean q = false;
+				if (pos < buf.length && buf[pos] == '"') {
+					q = true;
+					s = ++pos;
+					while (pos < buf.length && !(buf[pos] == '"' && (pos + 1 >= buf.length || buf[pos + 1] != '"')))
+						pos += (buf[pos] == '"' ? 2 : 1); // "" is an escaped quote
+					e = pos;
+					pos++; // closing quote
+				}
+				while (pos < buf.length && buf[pos] != ',' && buf[pos] != '\n')
+					pos++;
+				if (!q)
+					e = (pos > s && buf[pos - 1] == '\r' ? pos - 1 : pos);
+				else
+					e = Math.min(e, pos);
+				if (field < columns) {
+					start[field] = s;
+					end[field] = e;
+					quoted[field] = q;
+				}
+				field++;
+				done = (pos >= buf.length || buf[pos] == '\n');
+				pos++;
+			}
+			Airport ap = (field >= columns ? toAirport(buf, start, end, quoted) : null);
+			if (ap != null)
+				result.add(ap);
+			else if (field > 1 || end[0] > start[0]) // ignore blank lines
+				result.skipped++;
+		}
+		return result;
+	}
+
+	private Airport toAirport(byte[] buf, int[] start, int[] end, boolean[] quoted) {
+		int cs = start[codeCol], ce = end[codeCol];
+		if (ce == cs || (ce - cs == 2 && buf[cs] == '\\' && buf[cs + 1] == 'N'))
+			return null;
+		double x = parseDouble(buf, start[lonCol], end[lonCol]);
+		double y = parseDouble(buf, start[latCol], end[latCol]);
+		if (Double.isNaN(x) || Double.isNaN(y))
+			return null;
+		return new Airport(text(buf, cs, ce, quoted[codeCol]), text(buf, start[nameCol], end[nameCol], quoted[nameCol]),
+				text(buf, start[cityCol], end[cityCol], quoted[cityCol]),
+				text(buf, start[countryCol], end[countryCol], quoted[countryCol]), x, y);
+	}
+
+	private static String text(byte[] buf, int s, int e, boolean quoted) {
+		String str = new String(buf, s, e - s, StandardCharsets.UTF_8);
+		return (quoted && str.indexOf('"') >= 0 ? str.replace("\"\"", "\"") : str);
+	}
+
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Parse a decimal number from bytes, NaN if malformed. Numbers whose digits
+	 * fit in 53 bits, with at most 22 decimals and no exponent (all coordinates
+	 * in practice), are converted exactly as Double.parseDouble would: the
+	 * digits and the power of ten are both exact doubles, so one division is
+	 * correctly rounded. Anything else falls back to Double.parseDouble.
+	 */
+	static double parseDouble(byte[] buf, int s, int e) {
+		int pos = s;
+		boolean negative = false;
+		if (pos < e && (buf[pos] == '-' || buf[pos] == '+'))
+			negative = (buf[pos++] == '-');
+		long mantissa = 0;
+		int digits = 0, scale = 0;
+		boolean dot = false, any = false;
+		for (; pos < e; pos++) {
+			byte b = buf[pos];
+			if (b >= '0' && b <= '9') {
+				any = true;
+				if (mantissa != 0 || b != '0')
+					digits++;
+				mantissa = mantissa * 10 + (b - '0');
+				if (dot)
+					scale++;
+				if (digits > 17)
+					break;
+			} else if (b == '.' && !dot)
+				dot = true;
+			else
+				break;
+		}
+		if (pos < e || scale >= POW10.length || mantissa > (1L << 53)) { // slow path
+			try {
+				return Double.parseDouble(new String(buf, s, e - s, StandardCharsets.US_ASCII).trim());
+			} catch (NumberFormatException ex) {
+				return Double.NaN;
+			}
+		}
+		if (!any)
+			return Double.NaN;
+		double value = mantissa / POW10[scale];
+		return (negative ? -value : value);
+	}
+}
@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+
+/**
+ * Outcome of a bulk append (see Tour.appendAll). Every record that was
+ * rejected is listed here, grouped by the reason it would have been rejected
+ * by Tour.append: a label that is already in use, or coordinates that are
+ * already in use. All other records were appended in their input order.
+ */
+public class AppendResult<LPoint extends LabeledPoint2D> {
+
+	private int appended; // number of points added to the tour
+	private ArrayList<LPoint> duplicateLabels; // rejected: "Duplicate label"
+	private ArrayList<LPoint> duplicateCoordinates; // rejected: "Duplicate coordinates"
+
+	/**
+	 * constructor
+	 */
+	public AppendResult() {
+		appended = 0;
+		duplicateLabels = new ArrayList<LPoint>();
+		duplicateCoordinates = new ArrayList<LPoint>();
+	}
+
+	void addAppended(int count) {
+		appended += count;
+	}
+
+	void addDuplicateLabel(LPoint pt) {
+		duplicateLabels.add(pt);
+	}
+
+	void addDuplicateCoordinates(LPoint pt) {
+		duplicateCoordinates.add(pt);
+	}
+
+	public int getAppended() {
+		return appended;
+	}
+
+	public ArrayList<LPoint> getDuplicateLabels() {
+		return duplicateLabels;
+	}
+
+	public ArrayList<LPoint> getDuplicateCoordinates() {
+		return duplicateCoordinates;
+	}
+
+	/**
+	 * True if every record was appended.
+	 */
+	public boolean isClean() {
+		return duplicateLabels.isEmpty() && duplicateCoordinates.isEmpty();
+	}
+
+	public String toString() {
+		return "appended " + appended + ", duplicate labels " + duplicateLabels.size()
+				+ ", duplicate coordinates " + duplicateCoordinates.size();
+	}
+}
@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * ConcurrentTour
+ *
+ * A thread-safe facade over a Tour for one writer (typically an optimizer)
+ * and many readers. Writes run under the write lock of a StampedLock.
+ * Reads are first tried optimistically, without any lock: the query runs
+ * against the tour as it is, and its result is only used if no write
+ * started in the meantime (StampedLock.validate). Otherwise, or if the
+ * query failed on the half-written structures, it runs again under the
+ * read lock. Readers therefore never block each other and only wait for
+ * the writer when a write really overlapped them.
+ *
+ * Writes should be coarse: every write invalidates all optimistic reads in
+ * flight, so an optimizer should apply many moves per write (see
+ * twoOptStep) rather than one lock per twoOpt.
+ *
+ * A query given to read must not change the tour, must copy whatever it
+ * returns out of the tour (e.g., list() returns a copy) and must be
+ * prepared to see an inconsistent tour: it may throw anything (including
+ * an Error such as StackOverflowError) or return nonsense, but it must
+ * terminate. Queries that only scan the slot array (size, list, cost)
+ * terminate whatever they see. Searches of the locator or the spatial
+ * index do not: a tree caught in the middle of a rotation may send a
+ * search around in a cycle. Such queries go through readLocked instead,
+ * which runs them under the read lock only (get, next, prev and
+ * circularRange do).
+ *
+ * So only the scans (size, list, cost) are lock-free. The lookups by
+ * label (get, next, prev) and circularRange always take the read lock: they
+ * search the locator or the spatial index, and besides rotations, a
+ * rebuild (Tour.appendAll) reuses the nodes of the old trees (see
+ * AAXTree.build and WKDTree.build), so an unlocked search may follow a
+ * recycled node into another part of the tree or into a cycle. Catching
+ * what such a search throws (a StackOverflowError, after a long time) and
+ * retrying would cost more than the read lock, which readers share; they
+ * only wait for a write in progress.
+ */
+public class ConcurrentTour<LPoint extends LabeledPoint2D> {
+
+	private final Tour<LPoint> tour;
+	private final StampedLock lock;
+
+	/**
+	 * A unit of work on the tour that may fail.
+	 */
+	public interface Action<LPoint extends LabeledPoint2D, T> {
+		T apply(Tour<LPoint> tour) throws Exception;
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param tour The tour (must only be used through this facade afterwards)
+	 */
+	public ConcurrentTour(Tour<LPoint> tour) {
+		this.tour = tour;
+		lock = new StampedLock();
+	}
+
+	/**
+	 * Run a read-only query, optimistically if possible (see above). The
+	 * query must terminate on any state of the tour.
+	 */
+	public <T> T read(Function<Tour<LPoint>, T> query) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				T result = query.apply(tour);
+				if (lock.validate(stamp))
+					return result;
+			} catch (Throwable e) {
+				if (lock.validate(stamp))
+					throw e; // a genuine error, not a torn read
+			}
+		}
+		return readLocked(query);
+	}
+
+	/**
+	 * Run a read-only query under the read lock, for queries that might not
+	 * terminate on a torn tour (see above).
+	 */
+	public <T> T readLocked(Function<Tour<LPoint>, T> query) {
+		long stamp = lock.readLock();
+		try {
+			return query.apply(tour);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Run a group of changes under the write lock.
+	 */
+	public <T> T write(Action<LPoint, T> action) throws Exception {
+		long stamp = lock.writeLock();
+		try {
+			return action.apply(tour);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	// -----------------------------------------------------------------
+	// Reads
+	// -----------------------------------------------------------------
+
+	public int size() {
+		return read(t -> t.size());
+	}
+
+	public ArrayList<LPoint> list() {
+		return read(t -> new ArrayList<LPoint>(t.list()));
+	}
+
+	public double cost() {
+		return read(t -> t.cost());
+	}
+
+	/**
+	 * The point with the given label, or null if it is not in the tour.
+	 */
+	public LPoint get(String label) {
+		return readLocked(t -> t.get(label));
+	}
+
+	/**
+	 * The points following and preceding the point with the given label, or
+	 * null if it is not in the tour.
+	 */
+	public LPoint next(String label) {
+		return readLocked(t -> {
+			try {
+				return (t.get(label) == null ? null : t.next(label));
+			} catch (Exception e) {
+				throw new IllegalStateException(e); // (not thrown: the label is there)
+			}
+		});
+	}
+
+	public LPoint prev(String label) {
+		return readLocked(t -> {
+			try {
+				return (t.get(label) == null ? null : t.prev(label));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	public ArrayList<LPoint> circularRange(Point2D center, float sqRadius) {
+		return readLocked(t -> t.circularRange(center, sqRadius));
+	}
+
+	// -----------------------------------------------------------------
+	// Writes
+	// -----------------------------------------------------------------
+
+	public void append(LPoint pt) throws Exception {
+		write(t -> {
+			t.append(pt);
+			return null;
+		});
+	}
+
+	public void insertCheapest(LPoint pt) throws Exception {
+		write(t -> {
+			t.insertCheapest(pt);
+			return null;
+		});
+	}
+
+	public LPoint remove(String label) throws Exception {
+		return write(t -> t.remove(label));
+	}
+
+	public boolean twoOpt(String label1, String label2) throws Exception {
+		return write(t -> t.twoOpt(label1, label2));
+	}
+
+	/**
+	 * Advance a 2-Opt sweep (see Tour.twoOptCursor) by up to maxMoves pairs in
+	 * one write section.
+	 *
+	 * @return The number of improving moves applied
+	 */
+	public int twoOptStep(Tour<LPoint>.TwoOptCursor cursor, int maxMoves) throws Exception {
+		return write(t -> cursor.step(maxMoves));
+	}
+
+	/**
+	 * Create a 2-Opt cursor for this tour (to be used with twoOptStep).
+	 */
+	public Tour<LPoint>.TwoOptCursor twoOptCursor() throws Exception {
+		return write(t -> t.twoOptCursor());
+	}
+}
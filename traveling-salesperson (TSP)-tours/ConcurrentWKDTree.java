@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ConcurrentWKDTree
+ *
+ * A WKDTree that many threads can insert into and query at the same time.
+ * The tree has the same shape as a WKDTree built by the same inserts
+ * (internal nodes with a cutting dimension, cutting value and wrapper;
+ * points in the leaves), but:
+ *
+ *   - the cutting dimension and value of a node never change, and the
+ *     child links and wrappers are atomic references;
+ *   - an insert first grows the wrappers along its search path (with CAS,
+ *     and only where the point lies outside) and then replaces the leaf it
+ *     reaches by a new internal node with one CAS on the parent's link. If
+ *     another insert replaced that leaf first, the CAS fails and the search
+ *     simply continues below. Inserts into different regions touch
+ *     different links and do not wait for each other;
+ *   - queries (find, fixedRadNN, circularRange) take no lock at all. Since
+ *     a leaf is linked only after every wrapper above it contains it, a
+ *     query sees every insert that completed before it started;
+ *   - delete unlinks a leaf and its parent and shrinks the wrappers above.
+ *     Deletes exclude inserts (a read-write lock, with inserts sharing the
+ *     read side) but not queries: a query that is already below the
+ *     unlinked node may still report the deleted point.
+ *
+ * The queries answer exactly as the corresponding WKDTree queries.
+ */
+public class ConcurrentWKDTree<LPoint extends LabeledPoint2D> {
+
+	private final AtomicReferenceArray<Node> root; // a single link to the root
+	private final AtomicInteger size;
+	private final ReentrantReadWriteLock updates; // read side: inserts, write side: deletes
+
+	private abstract class Node {
+		abstract Rectangle2D getWrapper();
+
+		abstract LPoint find(Point2D pt);
+
+		abstract LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best);
+
+		abstract void circularRange(Point2D center, float sqRadius, ArrayList<LPoint> list);
+	}
+
+	private class InternalNode extends Node {
+		final int cutDim; // the cutting dimension (0 = x, 1 = y)
+		final double cutVal; // the cutting value
+		final AtomicReference<Rectangle2D> wrapper; // bounding box (never changed in place)
+		final AtomicReferenceArray<Node> child; // left (0) and right (1)
+
+		InternalNode(int cutDim, double cutVal, Node left, Node right) {
+			this.cutDim = cutDim;
+			this.cutVal = cutVal;
+			child = new AtomicReferenceArray<Node>(2);
+			child.set(0, left);
+			child.set(1, right);
+			wrapper = new AtomicReference<Rectangle2D>(Rectangle2D.union(left.getWrapper(), right.getWrapper()));
+		}
+
+		Rectangle2D getWrapper() {
+			return wrapper.get();
+		}
+
+		int side(Point2D pt) {
+			return (pt.get(cutDim) < cutVal ? 0 : 1);
+		}
+
+		/**
+		 * Grow the wrapper to contain pt.
+		 */
+		void expand(Point2D pt) {
+			Rectangle2D w;
+			while (!(w = wrapper.get()).contains(pt)) {
+				Rectangle2D grown = new Rectangle2D(w);
+				grown.add(pt);
+				if (wrapper.compareAndSet(w, grown))
+					return;
+			}
+		}
+
+		LPoint find(Point2D pt) {
+			if (getWrapper().contains(pt))
+				return child.get(side(pt)).find(pt);
+			return null;
+		}
+
+		LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best) {
+			Rectangle2D w = getWrapper();
+			if (w.distanceSq(q) >= Math.pow(sqRadius, 2))
+				return best;
+			if (best != null && w.distanceSq(q) > q.distanceSq(best.getPoint2D()))
+				return best;
+			best = child.get(0).fixedRadNN(q, sqRadius, best);
+			return child.get(1).fixedRadNN(q, sqRadius, best);
+		}
+
+		void circularRange(Point2D center, float sqRadius, ArrayList<LPoint> list) {
+			if (getWrapper().distanceSq(center) <= sqRadius) {
+				child.get(0).circularRange(center, sqRadius, list);
+				child.get(1).circularRange(center, sqRadius, list);
+			}
+		}
+	}
+
+	private class ExternalNode extends Node {
+		final LPoint thisPt; // the associated point
+
+		ExternalNode(LPoint pt) {
+			thisPt = pt;
+		}
+
+		Rectangle2D getWrapper() {
+			return new Rectangle2D(thisPt.getPoint2D(), thisPt.getPoint2D());
+		}
+
+		/**
+		 * The internal node that replaces this leaf when pt is inserted (the
+		 * same split as WKDTree).
+		 */
+		InternalNode split(ExternalNode leaf) {
+			LPoint pt = leaf.thisPt;
+			Rectangle2D wrapper = new Rectangle2D(thisPt.getPoint2D(), pt.getPoint2D());
+			int cutDim = (wrapper.getWidth(0) >= wrapper.getWidth(1) ? 0 : 1);
+			double cutVal = (pt.get(cutDim) + thisPt.get(cutDim)) / 2;
+			if (pt.get(cutDim) < cutVal)
+				return new InternalNode(cutDim, cutVal, leaf, this);
+			else
+				return new InternalNode(cutDim, cutVal, this, leaf);
+		}
+
+		LPoint find(Point2D pt) {
+			return (thisPt.getPoint2D().equals(pt) ? thisPt : null);
+		}
+
+		LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best) {
+			if (thisPt.getX() == q.getX() && thisPt.getY() == q.getY())
+				return best;
+			double d = q.distanceSq(thisPt.getPoint2D());
+			if (d >= Math.pow(sqRadius, 2))
+				return best;
+			if (best == null)
+				return thisPt;
+			double bestDist = q.distanceSq(best.getPoint2D());
+			if (d < bestDist || (d == bestDist && (thisPt.getX() < best.getX()
+					|| (thisPt.getX() == best.getX() && thisPt.getY() < best.getY()))))
+				return thisPt;
+			return best;
+		}
+
+		void circularRange(Point2D center, float sqRadius, ArrayList<LPoint> list) {
+			if (center.distanceSq(thisPt.getPoint2D()) <= sqRadius)
+				list.add(thisPt);
+		}
+	}
+
+	public ConcurrentWKDTree() {
+		root = new AtomicReferenceArray<Node>(1);
+		size = new AtomicInteger();
+		updates = new ReentrantReadWriteLock();
+	}
+
+	public int size() { return size.get(); }
+
+	/**
+	 * Insert a point (safe to call from any number of threads).
+	 *
+	 * @param pt The point to be inserted
+	 * @throws Exception if a point with the same coordinates is in the tree
+	 */
+	public void insert(LPoint pt) throws Exception {
+		Point2D p = pt.getPoint2D();
+		ExternalNode leaf = new ExternalNode(pt);
+		updates.readLock().lock();
+		try {
+			AtomicReferenceArray<Node> link = root;
+			int side = 0;
+			while (true) {
+				Node node = link.get(side);
+				if (node == null) { // empty tree
+					if (link.compareAndSet(side, null, leaf))
+						break;
+				} else if (node instanceof ConcurrentWKDTree.InternalNode) {
+					InternalNode in = (InternalNode) node;
+					in.expand(p);
+					link = in.child;
+					side = in.side(p);
+				} else {
+					ExternalNode ex = (ExternalNode) node;
+					if (ex.thisPt.getPoint2D().equals(p))
+						throw new Exception("Insertion of point with duplicate coordinates");
+					if (link.compareAndSet(side, ex, ex.split(leaf)))
+						break;
+					// another insert split this leaf first: continue below it
+				}
+			}
+			size.incrementAndGet();
+		} finally {
+			updates.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Delete a point (waits for the inserts in progress).
+	 *
+	 * @param pt The coordinates of the point to be deleted
+	 * @throws Exception if no point with these coordinates is in the tree
+	 */
+	public void delete(Point2D pt) throws Exception {
+		updates.writeLock().lock();
+		try {
+			ArrayList<InternalNode> path = new ArrayList<InternalNode>();
+			Node node = root.get(0);
+			while (node instanceof ConcurrentWKDTree.InternalNode) {
+				InternalNode in = (InternalNode) node;
+				path.add(in);
+				node = in.child.get(in.side(pt));
+			}
+			if (node == null || !((ExternalNode) node).thisPt.getPoint2D().equals(pt))
+				throw new Exception("Deletion of nonexistent point");
+			if (path.isEmpty())
+				root.set(0, null);
+			else {
+				// replace the parent by the sibling of the leaf
+				InternalNode parent = path.remove(path.size() - 1);
+				Node sibling = parent.child.get(1 - parent.side(pt));
+				if (path.isEmpty())
+					root.set(0, sibling);
+				else {
+					InternalNode grand = path.get(path.size() - 1);
+					grand.child.set(grand.side(pt), sibling);
+				}
+				for (int k = path.size() - 1; k >= 0; k--) { // shrink the wrappers
+					InternalNode in = path.get(k);
+					in.wrapper.set(Rectangle2D.union(in.child.get(0).getWrapper(), in.child.get(1).getWrapper()));
+				}
+			}
+			size.decrementAndGet();
+		} finally {
+			updates.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Find a point by its coordinates (see WKDTree.find).
+	 */
+	public LPoint find(Point2D pt) {
+		Node node = root.get(0);
+		return (node == null ? null : node.find(pt));
+	}
+
+	/**
+	 * Fixed-radius nearest neighbor (see WKDTree.fixedRadNN).
+	 */
+	public LPoint fixedRadNN(Point2D q, double sqRadius) {
+		Node node = root.get(0);
+		return (node == null ? null : node.fixedRadNN(q, sqRadius, null));
+	}
+
+	/**
+	 * Circular range reporting (see WKDTree.circularRange).
+	 */
+	public ArrayList<LPoint> circularRange(Point2D center, float sqRadius) {
+		ArrayList<LPoint> list = new ArrayList<LPoint>();
+		Node node = root.get(0);
+		if (node != null)
+			node.circularRange(center, sqRadius, list);
+		return list;
+	}
+}
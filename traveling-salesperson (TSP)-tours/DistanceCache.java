@@ -0,0 +1,285 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * DistanceCache
+ *
+ * A DistanceMetric that remembers the distances of another one between the
+ * points of a fixed set, for metrics that are expensive to evaluate (e.g.,
+ * HAVERSINE, whose every distance takes an asin). A Tour built with the
+ * cache (new Tour(cache)) looks up the edges twoOpt, twoOptNN and cost
+ * measure instead of recomputing them, and so does its spatial index.
+ *
+ * Every point of the set gets an index, and a pair of points is looked up
+ * in two places:
+ *
+ *   - the candidate table: the exact distances between every point and
+ *     its candidates (the points either of which is among the k nearest
+ *     neighbors of the other), computed when the cache is built and kept
+ *     in flat primitive arrays, one run per point. Good tours are made
+ *     mostly of such edges, so most lookups end here.
+ *   - the pair cache: a bounded open-addressing table for all other
+ *     pairs. A pair has WAYS slots it may occupy (linear probing from
+ *     its hash), and when they are all full one of them is evicted by
+ *     CLOCK: every hit sets a slot's reference bit, and eviction takes the
+ *     first slot without it, clearing the bits it passes.
+ *
+ * A pair found in neither is computed by the underlying metric and stored
+ * in the pair cache. Pairs with a point outside the set (or not yet in it)
+ * are always computed. Lower bounds for wrappers come straight from the
+ * underlying metric.
+ *
+ * The points must not move while the cache is in use. The cache numbers
+ * them in a table of its own (see PointIndex) and does not write into
+ * them, so several caches and matrices may be built over the same points.
+ *
+ * Lookups may be made by any number of threads at once (e.g., the readers
+ * and the writer of a ConcurrentTour). A thread claims a slot of the pair
+ * cache by compare-and-set before writing it (key BUSY, then the distance,
+ * then the new key), and a lookup takes a distance only if its slot still
+ * holds the key after the distance was read, so it never returns the
+ * distance of another pair. Reference bits are set and cleared by
+ * compare-and-set as well. Under concurrent use a lookup may compute a pair
+ * that another thread is caching, and the statistics may miss lookups.
+ */
+public class DistanceCache implements DistanceMetric {
+
+	private static final int WAYS = 8; // slots a pair may occupy in the pair cache
+	private static final long EMPTY = -1;
+	private static final long BUSY = -2; // a slot being written (keys are >= 0)
+	private static final long REFERENCED = 1L << 31; // CLOCK bit, kept in the key (b < 2^31)
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+	static final int MAX_CAPACITY = 1 << 29; // (two longs per slot, in one array)
+
+	private final DistanceMetric base;
+	private final PointIndex index; // the index of each point of the set
+	private final int[] first; // candidates of point i: positions first[i] .. first[i + 1] - 1
+	private final int[] candidates; // index of each candidate
+	private final double[] candidateDistances; // its distance
+	private final long[] slots; // pair cache: slot s is the key at 2s, the distance bits at 2s + 1
+	private final int mask;
+	private int hand; // where eviction starts within the WAYS slots (racy, only a hint)
+
+	private long candidateHits, pairHits, misses, uncached; // (racy under concurrent use)
+
+	/**
+	 * Builds the cache over a set of points.
+	 *
+	 * @param base The metric whose distances are cached
+	 * @param pts The points (distinct coordinates)
+	 * @param k Nearest neighbors of each point kept as its candidates
+	 * @param capacity Slots of the pair cache (rounded up to a power of 2, at
+	 *                 most MAX_CAPACITY)
+	 * @throws Exception if two points have the same coordinates, or a size is
+	 *                   out of range
+	 */
+	public DistanceCache(DistanceMetric base, Collection<? extends LabeledPoint2D> pts, int k, int capacity)
+			throws Exception {
+		if (k < 0 || capacity < 1 || capacity > MAX_CAPACITY)
+			throw new Exception("Invalid cache size");
+		this.base = base;
+		int n = pts.size();
+		ArrayList<LabeledPoint2D> list = new ArrayList<LabeledPoint2D>(pts);
+		WKDTree<LabeledPoint2D> spatial = new WKDTree<LabeledPoint2D>(base);
+		if (k > 0)
+			spatial.build(list); // (first, as it may fail)
+		index = new PointIndex(list);
+		Point2D[] points = new Point2D[n];
+		for (int i = 0; i < n; i++)
+			points[i] = list.get(i).getPoint2D();
+		// the k nearest neighbors of every point, then made symmetric (j is a
+		// candidate of i if either is among the nearest of the other), so a
+		// lookup only scans the candidates of one of the two points
+		int[] nearest = new int[n * k];
+		Arrays.fill(nearest, -1);
+		for (int i = 0; i < n && k > 0; i++) {
+			int c = i * k;
+			for (LabeledPoint2D nb : spatial.nearest(points[i], k + 1)) {
+				if (nb.getPoint2D() != points[i] && c < (i + 1) * k)
+					nearest[c++] = index.indexOf(nb.getPoint2D());
+			}
+		}
+		first = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			for (int c = i * k; c < (i + 1) * k; c++) {
+				if (isNewPair(nearest, k, i, nearest[c])) {
+					first[i + 1]++;
+					first[nearest[c] + 1]++;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++)
+			first[i + 1] += first[i];
+		candidates = new int[first[n]];
+		int[] next = Arrays.copyOf(first, n);
+		for (int i = 0; i < n; i++) {
+			for (int c = i * k; c < (i + 1) * k; c++) {
+				int j = nearest[c];
+				if (isNewPair(nearest, k, i, j)) {
+					candidates[next[i]++] = j;
+					candidates[next[j]++] = i;
+				}
+			}
+		}
+		candidateDistances = new double[candidates.length];
+		for (int i = 0; i < n; i++) {
+			for (int c = first[i]; c < first[i + 1]; c++)
+				candidateDistances[c] = base.distanceSq(points[i], points[candidates[c]]);
+		}
+		int size = Integer.highestOneBit(Math.max(WAYS, capacity) * 2 - 1);
+		slots = new long[2 * size];
+		for (int s = 0; s < size; s++)
+			slots[2 * s] = EMPTY;
+		mask = size - 1;
+	}
+
+	/**
+	 * true if j, one of the k nearest of i, is a pair not met before: j is
+	 * not -1 (none), and if j < i, i is not among the k nearest of j
+	 */
+	private static boolean isNewPair(int[] nearest, int k, int i, int j) {
+		if (j < 0)
+			return false;
+		if (j < i) {
+			for (int c = j * k; c < (j + 1) * k; c++) {
+				if (nearest[c] == i)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	public double distanceSq(Point2D p, Point2D q) {
+		int a = index.indexOf(p), b = index.indexOf(q);
+		if (a < 0 || b < 0) {
+			uncached++;
+			return base.distanceSq(p, q);
+		}
+		for (int c = first[a], end = first[a + 1]; c < end; c++) {
+			if (candidates[c] == b) {
+				candidateHits++;
+				return candidateDistances[c];
+			}
+		}
+		long key = (a < b ? (long) a << 32 | b : (long) b << 32 | a);
+		int home = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		int free = -1;
+		for (int w = 0; w < WAYS; w++) {
+			int s = (home + w) & mask;
+			long k = (long) SLOTS.getAcquire(slots, 2 * s);
+			if ((k & ~REFERENCED) == key) { // (never BUSY)
+				double d = Double.longBitsToDouble((long) SLOTS.getOpaque(slots, 2 * s + 1));
+				VarHandle.acquireFence(); // (the distance is read before the key is checked again)
+				long again = (long) SLOTS.getOpaque(slots, 2 * s);
+				if ((again & ~REFERENCED) != key)
+					break; // rewritten meanwhile
+				pairHits++;
+				if ((again & REFERENCED) == 0)
+					SLOTS.compareAndSet(slots, 2 * s, again, again | REFERENCED);
+				return d;
+			}
+			if (k == EMPTY) { // (slots are never emptied, so the pair is not further on)
+				free = s;
+				break;
+			}
+		}
+		misses++;
+		double d = base.distanceSq(p, q);
+		int s = (free >= 0 ? free : victim(home));
+		if (s >= 0)
+			store(s, key, d);
+		return d;
+	}
+
+	/**
+	 * Write a pair into slot s, unless another thread claimed the slot first
+	 * (free slots are EMPTY, victims are keys without the reference bit).
+	 */
+	private void store(int s, long key, double d) {
+		long k = (long) SLOTS.getOpaque(slots, 2 * s);
+		if (k != EMPTY && (k < 0 || (k & REFERENCED) != 0))
+			return;
+		if (!SLOTS.compareAndSet(slots, 2 * s, k, BUSY))
+			return;
+		VarHandle.releaseFence(); // (BUSY is seen before the new distance)
+		SLOTS.setOpaque(slots, 2 * s + 1, Double.doubleToRawLongBits(d));
+		SLOTS.setRelease(slots, 2 * s, key);
+	}
+
+	public double distanceSq(Point2D q, Rectangle2D wrapper) {
+		return base.distanceSq(q, wrapper);
+	}
+
+	/**
+	 * the slot to evict among the WAYS slots from home (CLOCK, see above), or
+	 * -1 if other threads kept them all busy or referenced for two rounds
+	 */
+	private int victim(int home) {
+		int start = hand = (hand + 1) & (WAYS - 1);
+		for (int t = 0; t < 2 * WAYS; t++) {
+			int s = (home + ((start + t) & (WAYS - 1))) & mask;
+			long k = (long) SLOTS.getOpaque(slots, 2 * s);
+			if (k < 0) // (BUSY)
+				continue;
+			if ((k & REFERENCED) == 0)
+				return s;
+			SLOTS.compareAndSet(slots, 2 * s, k, k & ~REFERENCED);
+		}
+		return -1;
+	}
+
+	public DistanceMetric getBase() { return base; }
+
+	/**
+	 * Lookups answered by the candidate table.
+	 */
+	public long getCandidateHits() { return candidateHits; }
+
+	/**
+	 * Lookups answered by the pair cache.
+	 */
+	public long getPairHits() { return pairHits; }
+
+	/**
+	 * Lookups computed by the underlying metric and then cached.
+	 */
+	public long getMisses() { return misses; }
+
+	/**
+	 * Lookups computed by the underlying metric because a point was not in
+	 * the set.
+	 */
+	public long getUncached() { return uncached; }
+
+	/**
+	 * Fraction of all lookups that were answered without computing (0 if
+	 * none were made).
+	 */
+	public double getHitRate() {
+		long hits = candidateHits + pairHits, all = hits + misses + uncached;
+		return (all == 0 ? 0 : (double) hits / all);
+	}
+
+	public void resetStatistics() {
+		candidateHits = pairHits = misses = uncached = 0;
+	}
+
+	/**
+	 * Bytes held by the candidate table and the pair cache.
+	 */
+	public long getFootprint() {
+		return (long) first.length * Integer.BYTES + (long) candidates.length * (Integer.BYTES + Double.BYTES)
+				+ (long) slots.length * Long.BYTES;
+	}
+
+	public String statistics() {
+		return String.format(Locale.ROOT, "candidate hits=%d pair hits=%d misses=%d uncached=%d hit rate=%.3f",
+				candidateHits, pairHits, misses, uncached, getHitRate());
+	}
+
+	public String toString() { return "cached " + base; }
+}
@@ -0,0 +1,106 @@
+/**
+ * DistanceKernels
+ *
+ * Planar squared distances computed in batches over packed coordinate arrays
+ * (x[k], y[k]) instead of one Point2D pair at a time:
+ *
+ *   - distancesSq: from one point to a range of points
+ *   - edgeLengthsSq: the edges of a closed path through the points in
+ *     order (the terms of Tour.cost)
+ *   - twoOptDeltas: the change of cost of the 2-Opt moves (i, j) for a
+ *     range of j against a fixed i (see Tour.twoOpt)
+ *
+ * get() returns vectorized kernels built on the JDK Vector API when they are
+ * available, and the scalar ones otherwise. On JDK 17 the Vector API is the
+ * incubator module jdk.incubator.vector, so the vectorized kernels live in
+ * vector/VectorDistanceKernels.java and are only used if they were compiled
+ * and the JVM runs with that module:
+ *
+ *   javac --add-modules jdk.incubator.vector -d out *.java vector/*.java
+ *   java --add-modules jdk.incubator.vector -cp out ...
+ *
+ * Every kernel computes each result with the same operations, in the same
+ * order, as the scalar code (no fused multiply-add), so both give identical
+ * results. Coordinates that are NaN (e.g., gaps) give NaN results.
+ */
+public abstract class DistanceKernels {
+
+	public static final DistanceKernels SCALAR = new Scalar();
+
+	private static final DistanceKernels BEST = load();
+
+	/**
+	 * The vectorized kernels if available (and not disabled with
+	 * -Dtsp.vector=false), else SCALAR.
+	 */
+	public static DistanceKernels get() { return BEST; }
+
+	private static DistanceKernels load() {
+		if (!Boolean.parseBoolean(System.getProperty("tsp.vector", "true")))
+			return SCALAR;
+		try {
+			return (DistanceKernels) Class.forName("VectorDistanceKernels").getDeclaredConstructor().newInstance();
+		} catch (Throwable e) { // not compiled, or jdk.incubator.vector missing
+			return SCALAR;
+		}
+	}
+
+	/**
+	 * out[k - from] = squared distance from (qx, qy) to point k, for k in
+	 * [from, to).
+	 */
+	public abstract void distancesSq(double qx, double qy, double[] x, double[] y, int from, int to, double[] out);
+
+	/**
+	 * out[k] = squared length of the edge from point k to point k + 1, for k
+	 * in [0, n), where point n is point 0 (the closing edge).
+	 */
+	public abstract void edgeLengthsSq(double[] x, double[] y, int n, double[] out);
+
+	/**
+	 * out[j - from] = change of cost of the 2-Opt move (i, j), for j in
+	 * [from, to): the edges (i, i') and (j, j') are replaced by (i, j) and
+	 * (i', j'), where (nx[k], ny[k]) are the coordinates of the successor k'
+	 * of point k. The move improves the tour if the change is negative.
+	 */
+	public abstract void twoOptDeltas(double[] x, double[] y, double[] nx, double[] ny, int i, int from, int to,
+			double[] out);
+
+	/**
+	 * Name of the implementation (for reports).
+	 */
+	public abstract String getName();
+
+	static final class Scalar extends DistanceKernels {
+
+		public void distancesSq(double qx, double qy, double[] x, double[] y, int from, int to, double[] out) {
+			for (int k = from; k < to; k++) {
+				double dx = x[k] - qx, dy = y[k] - qy;
+				out[k - from] = dx * dx + dy * dy;
+			}
+		}
+
+		public void edgeLengthsSq(double[] x, double[] y, int n, double[] out) {
+			for (int k = 0; k < n; k++) {
+				int next = (k + 1 < n ? k + 1 : 0);
+				double dx = x[next] - x[k], dy = y[next] - y[k];
+				out[k] = dx * dx + dy * dy;
+			}
+		}
+
+		public void twoOptDeltas(double[] x, double[] y, double[] nx, double[] ny, int i, int from, int to,
+				double[] out) {
+			double xi = x[i], yi = y[i], xi1 = nx[i], yi1 = ny[i];
+			double dx = xi1 - xi, dy = yi1 - yi;
+			double old1 = dx * dx + dy * dy; // (i, i')
+			for (int j = from; j < to; j++) {
+				double ax = x[j] - xi, ay = y[j] - yi; // (i, j)
+				double bx = nx[j] - xi1, by = ny[j] - yi1; // (i', j')
+				double cx = nx[j] - x[j], cy = ny[j] - y[j]; // (j, j')
+				out[j - from] = ((ax * ax + ay * ay) + (bx * bx + by * by)) - (old1 + (cx * cx + cy * cy));
+			}
+		}
+
+		public String getName() { return "scalar"; }
+	}
+}
@@ -0,0 +1,263 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * DistanceMatrix
+ *
+ * A DistanceMetric that serves every distance between the points of a fixed
+ * set from a dense matrix computed once, for tours small enough to afford
+ * O(n^2) memory (about 2 GB in double precision for 20000 points, half of it
+ * in float). A Tour built with the matrix (new Tour(matrix)) then computes
+ * no distances while optimizing: twoOpt, twoOptNN and cost only read it.
+ *
+ * The matrix keeps the squared distances of the pairs (i, j), i > j, in row
+ * order (the lower triangle), as floats or doubles, outside the Java heap:
+ *
+ *   - in direct buffers (build without a file), private to the process
+ *   - in a memory-mapped file (build with a file), which other processes
+ *     optimizing the same points can map read-only with open, sharing its
+ *     pages through the operating system instead of computing their own
+ *
+ * build fills the rows in parallel. Float matrices round every distance
+ * to float, so tours over them may take different moves than over the
+ * underlying metric, and their costs are sums of the rounded values;
+ * double matrices give the same results as the metric itself.
+ *
+ * Pairs with a point outside the set are computed by the underlying metric,
+ * and so are the lower bounds for wrappers. As with DistanceCache, the
+ * points are numbered in a table of the matrix (see PointIndex), so other
+ * matrices and caches may share them. Lookups only read, so a matrix may be
+ * used by any number of threads.
+ *
+ * The file layout (version 1, native byte order) is a header of
+ * HEADER_INTS ints
+ *
+ *   MAGIC, VERSION, byte order (1 = little endian), n,
+ *   bytes per distance (4 or 8), fingerprint (2 ints), 0
+ *
+ * followed by the n (n - 1) / 2 distances. The fingerprint is a hash of
+ * the metric and of the labels and coordinates of the points in order, so
+ * open only accepts a file made for the same points.
+ */
+public class DistanceMatrix implements DistanceMetric {
+
+	private static final int MAGIC = 0x5453504d; // "TSPM"
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 8;
+	private static final int CHUNK_SHIFT = 27; // distances per buffer: 2^27 (a buffer holds at most 2 GB)
+
+	private final DistanceMetric base;
+	private final PointIndex index; // the index of each point of the set
+	private final int n;
+	private final int bytes; // per distance
+	private final FloatBuffer[] floats; // the distances, in chunks of 2^CHUNK_SHIFT (null if double)
+	private final DoubleBuffer[] doubles; // (null if float)
+
+	private DistanceMatrix(DistanceMetric base, List<? extends LabeledPoint2D> pts, int bytes,
+			ByteBuffer[] chunks) throws Exception {
+		this.base = base;
+		this.n = pts.size();
+		this.bytes = bytes;
+		floats = (bytes == Float.BYTES ? new FloatBuffer[chunks.length] : null);
+		doubles = (bytes == Double.BYTES ? new DoubleBuffer[chunks.length] : null);
+		for (int c = 0; c < chunks.length; c++) {
+			if (floats != null)
+				floats[c] = chunks[c].order(ByteOrder.nativeOrder()).asFloatBuffer();
+			else
+				doubles[c] = chunks[c].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		}
+		index = new PointIndex(pts);
+	}
+
+	/**
+	 * Computes the matrix of a set of points.
+	 *
+	 * @param base The metric whose distances are stored (used from several
+	 *             threads at once)
+	 * @param pts The points, in the order that defines their indices
+	 * @param bytes Bytes per distance: Float.BYTES or Double.BYTES
+	 * @param file The file to (over)write and map, or null to keep the
+	 *             matrix in direct buffers
+	 * @return The matrix
+	 */
+	public static DistanceMatrix build(DistanceMetric base, List<? extends LabeledPoint2D> pts, int bytes,
+			Path file) throws Exception {
+		if (bytes != Float.BYTES && bytes != Double.BYTES)
+			throw new Exception("Distances are stored as float or double");
+		int n = pts.size();
+		long entries = entries(n);
+		ByteBuffer[] chunks = new ByteBuffer[chunks(entries)];
+		if (file == null) {
+			for (int c = 0; c < chunks.length; c++)
+				chunks[c] = ByteBuffer.allocateDirect((int) (chunkEntries(entries, c) * bytes));
+		} else {
+			try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer head = ByteBuffer.allocate(4 * HEADER_INTS).order(ByteOrder.nativeOrder());
+				for (int value : header(base, pts, bytes))
+					head.putInt(value);
+				head.flip();
+				long offset = 0;
+				while (head.hasRemaining())
+					offset += ch.write(head, offset);
+				for (int c = 0; c < chunks.length; c++)
+					chunks[c] = ch.map(FileChannel.MapMode.READ_WRITE, dataOffset(c, bytes),
+							chunkEntries(entries, c) * bytes);
+			}
+		}
+		DistanceMatrix result = new DistanceMatrix(base, pts, bytes, chunks);
+		Point2D[] points = new Point2D[n];
+		for (int i = 0; i < n; i++)
+			points[i] = pts.get(i).getPoint2D();
+		// rows from the longest down, so that the parallel tasks end together
+		IntStream.range(0, n).parallel().forEach(k -> {
+			int i = n - 1 - k;
+			for (int j = 0; j < i; j++)
+				result.put(index(i, j), base.distanceSq(points[i], points[j]));
+		});
+		if (file != null) {
+			for (ByteBuffer chunk : chunks)
+				((MappedByteBuffer) chunk).force();
+		}
+		return result;
+	}
+
+	/**
+	 * Maps a matrix file written by build, read-only.
+	 *
+	 * @param base The metric the matrix was built with
+	 * @param pts The points it was built for, in the same order
+	 * @param file The matrix file
+	 * @return The matrix
+	 * @throws Exception If the file is not a matrix of a supported version,
+	 *                   or was built for another metric or other points
+	 */
+	public static DistanceMatrix open(DistanceMetric base, List<? extends LabeledPoint2D> pts, Path file)
+			throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (ch.size() < 4 * HEADER_INTS)
+				throw new Exception("Not a distance matrix");
+			ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, 4 * HEADER_INTS)
+					.order(ByteOrder.nativeOrder());
+			int[] header = new int[HEADER_INTS];
+			for (int k = 0; k < HEADER_INTS; k++)
+				header[k] = head.getInt(4 * k);
+			if (header[0] != MAGIC)
+				throw new Exception("Not a distance matrix (or written with another byte order)");
+			if (header[1] != VERSION)
+				throw new Exception("Unsupported distance matrix version " + header[1]);
+			int bytes = header[4];
+			if (bytes != Float.BYTES && bytes != Double.BYTES)
+				throw new Exception("Corrupt distance matrix");
+			int[] expected = header(base, pts, bytes);
+			if (header[3] != expected[3] || header[5] != expected[5] || header[6] != expected[6])
+				throw new Exception("Distance matrix of other points or of another metric");
+			long entries = entries(pts.size());
+			if (dataOffset(0, bytes) + entries * bytes > ch.size())
+				throw new Exception("Truncated distance matrix");
+			ByteBuffer[] chunks = new ByteBuffer[chunks(entries)];
+			for (int c = 0; c < chunks.length; c++)
+				chunks[c] = ch.map(FileChannel.MapMode.READ_ONLY, dataOffset(c, bytes),
+						chunkEntries(entries, c) * bytes);
+			return new DistanceMatrix(base, pts, bytes, chunks);
+		}
+	}
+
+	public double distanceSq(Point2D p, Point2D q) {
+		int a = index.indexOf(p), b = index.indexOf(q);
+		if (a < 0 || b < 0)
+			return base.distanceSq(p, q);
+		if (a == b)
+			return 0;
+		long k = (a > b ? index(a, b) : index(b, a));
+		int c = (int) (k >>> CHUNK_SHIFT), at = (int) k & ((1 << CHUNK_SHIFT) - 1);
+		return (floats != null ? floats[c].get(at) : doubles[c].get(at));
+	}
+
+	public double distanceSq(Point2D q, Rectangle2D wrapper) {
+		return base.distanceSq(q, wrapper);
+	}
+
+	public DistanceMetric getBase() { return base; }
+
+	public int size() { return n; }
+
+	/**
+	 * Bytes per distance: Float.BYTES or Double.BYTES.
+	 */
+	public int getBytesPerDistance() { return bytes; }
+
+	/**
+	 * Bytes taken by the distances (off the heap).
+	 */
+	public long getFootprint() { return entries(n) * bytes; }
+
+	public String toString() { return (bytes == Float.BYTES ? "float" : "double") + " matrix of " + base; }
+
+	private void put(long k, double d) {
+		int c = (int) (k >>> CHUNK_SHIFT), at = (int) k & ((1 << CHUNK_SHIFT) - 1);
+		if (floats != null)
+			floats[c].put(at, (float) d);
+		else
+			doubles[c].put(at, d);
+	}
+
+	/**
+	 * position of the pair (i, j), i > j, in the lower triangle
+	 */
+	private static long index(int i, int j) {
+		return (long) i * (i - 1) / 2 + j;
+	}
+
+	private static long entries(int n) {
+		return (long) n * (n - 1) / 2;
+	}
+
+	private static int chunks(long entries) {
+		return (int) Math.max(1, (entries + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT);
+	}
+
+	private static long chunkEntries(long entries, int c) {
+		return Math.max(0, Math.min(1L << CHUNK_SHIFT, entries - ((long) c << CHUNK_SHIFT)));
+	}
+
+	/**
+	 * file offset of chunk c (the data starts right after the header)
+	 */
+	private static long dataOffset(int c, int bytes) {
+		return 4 * HEADER_INTS + ((long) c << CHUNK_SHIFT) * bytes;
+	}
+
+	/**
+	 * the file header for a matrix of the points (see the class comment)
+	 */
+	private static int[] header(DistanceMetric base, List<? extends LabeledPoint2D> pts, int bytes) {
+		long h = mix(0xcbf29ce484222325L, base.toString().hashCode());
+		for (LabeledPoint2D pt : pts) {
+			h = mix(h, pt.getLabel().hashCode());
+			h = mix(h, Double.doubleToLongBits(pt.getX()));
+			h = mix(h, Double.doubleToLongBits(pt.getY()));
+		}
+		int little = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+		return new int[] { MAGIC, VERSION, little, pts.size(), bytes, (int) (h >>> 32), (int) h, 0 };
+	}
+
+	/**
+	 * FNV-1a step over the 8 bytes of a word
+	 */
+	private static long mix(long h, long word) {
+		for (int b = 0; b < 64; b += 8) {
+			h ^= (word >>> b) & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+}
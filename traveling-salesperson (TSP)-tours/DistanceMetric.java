@@ -0,0 +1,150 @@
+/**
+ * DistanceMetric
+ *
+ * The distance used by a Tour (cost, twoOpt, insertCheapest, ...) and its
+ * WKDTree (nearest-neighbor and range queries). Like the planar distance it
+ * replaces, a metric works with squared distances, and for pruning it gives a
+ * lower bound on the squared distance from a point to anything inside a
+ * wrapper. A tour or tree uses a single metric for its whole life.
+ *
+ *   - PLANAR: Euclidean distance of (x, y), as Point2D.distanceSq
+ *   - HAVERSINE: great-circle distance in km between points given as
+ *     (longitude, latitude) in degrees, as Airport does
+ *   - CHORD: straight-line distance in km through the Earth between the
+ *     same points. It increases with the great-circle distance, so it finds
+ *     the same neighbors as HAVERSINE, and it needs no inverse trigonometry,
+ *     which makes it the fast choice for spherical tours (tour costs differ
+ *     slightly, as long edges are shortened)
+ *
+ * Both spherical metrics work on unit vectors cached in the points (see
+ * Point2D.unitVector), so point distances need no trigonometry after the
+ * first use of a point. For them a wrapper is a longitude/latitude box, and
+ * its bound comes from the haversine formula
+ *
+ *   sin^2(angle/2) = sin^2(dLat/2) + cos(lat1) cos(lat2) sin^2(dLon/2)
+ *
+ * with each term at its smallest over the box: dLat and dLon are the gaps
+ * from q to the box (dLon the shorter way around, so the bound holds across
+ * the antimeridian) and cos(lat2) is taken at the box latitude nearest to a
+ * pole. The sines and the cosine are replaced by Taylor polynomials cut
+ * after a negative term, which are lower bounds (sin t >= t - t^3/6 for
+ * t >= 0, cos t >= 1 - t^2/2 + t^4/24 - t^6/720), so the bound needs no
+ * trigonometry at all and stays within a fraction of a percent of the
+ * exact terms for the angles that matter when pruning.
+ */
+public interface DistanceMetric {
+
+	double EARTH_RADIUS = 6371.0088; // mean Earth radius in km
+
+	// Shrinks the spherical bounds a little, so that rounding never lets a
+	// bound exceed the distance of a point on the boundary of its wrapper.
+	double SAFETY = 1 - 1e-12;
+
+	DistanceMetric PLANAR = new Planar();
+
+	DistanceMetric HAVERSINE = new Haversine();
+
+	DistanceMetric CHORD = new Chord();
+
+	/**
+	 * Squared distance between two points.
+	 */
+	double distanceSq(Point2D p, Point2D q);
+
+	/**
+	 * Lower bound on the squared distance from q to any point of the wrapper
+	 * (0 if q lies inside it).
+	 */
+	double distanceSq(Point2D q, Rectangle2D wrapper);
+
+	final class Planar implements DistanceMetric {
+		private Planar() {}
+
+		public double distanceSq(Point2D p, Point2D q) {
+			return p.distanceSq(q);
+		}
+
+		public double distanceSq(Point2D q, Rectangle2D wrapper) {
+			return wrapper.distanceSq(q);
+		}
+
+		public String toString() { return "planar"; }
+	}
+
+	final class Haversine implements DistanceMetric {
+		private Haversine() {}
+
+		public double distanceSq(Point2D p, Point2D q) {
+			double d = EARTH_RADIUS * 2 * Math.asin(Math.min(1, Math.sqrt(chordSq(p, q)) / 2));
+			return d * d;
+		}
+
+		public double distanceSq(Point2D q, Rectangle2D wrapper) {
+			double d = EARTH_RADIUS * 2 * Math.asin(Math.sqrt(boxHaversine(q, wrapper)));
+			return d * d;
+		}
+
+		public String toString() { return "haversine"; }
+	}
+
+	final class Chord implements DistanceMetric {
+		private Chord() {}
+
+		public double distanceSq(Point2D p, Point2D q) {
+			return EARTH_RADIUS * EARTH_RADIUS * chordSq(p, q);
+		}
+
+		public double distanceSq(Point2D q, Rectangle2D wrapper) {
+			// chord = 2 sin(angle/2), so chord^2 = 4 sin^2(angle/2)
+			return 4 * EARTH_RADIUS * EARTH_RADIUS * boxHaversine(q, wrapper);
+		}
+
+		public String toString() { return "chord"; }
+	}
+
+	/**
+	 * Squared distance between the unit vectors of two points.
+	 */
+	private static double chordSq(Point2D p, Point2D q) {
+		double[] u = p.unitVector(), v = q.unitVector();
+		double dx = u[0] - v[0], dy = u[1] - v[1], dz = u[2] - v[2];
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Lower bound on sin^2(angle/2) between q and the points of a
+	 * longitude/latitude box (see above), slightly shrunk by SAFETY.
+	 */
+	private static double boxHaversine(Point2D q, Rectangle2D box) {
+		double lon = q.getX(), lat = q.getY();
+		double lonLo = box.getLow().getX(), lonHi = box.getHigh().getX();
+		double latLo = box.getLow().getY(), latHi = box.getHigh().getY();
+		double dLat = Math.max(0, Math.max(latLo - lat, lat - latHi));
+		double sinLat = sinBelow(Math.toRadians(dLat) / 2);
+		double h = sinLat * sinLat;
+		if (lon < lonLo || lon > lonHi) {
+			double dLon = (lon < lonLo ? Math.min(lonLo - lon, lon + 360 - lonHi) : Math.min(lon - lonHi, lonLo + 360 - lon));
+			double[] u = q.unitVector();
+			double cosLat = Math.sqrt(u[0] * u[0] + u[1] * u[1]);
+			double cosFar = cosBelow(Math.toRadians(Math.max(Math.abs(latLo), Math.abs(latHi))));
+			double sinLon = sinBelow(Math.toRadians(dLon) / 2);
+			h += cosLat * cosFar * sinLon * sinLon;
+		}
+		return Math.min(1, h) * SAFETY;
+	}
+
+	/**
+	 * Lower bound on sin t for 0 <= t <= pi/2 (at least 0)
+	 */
+	private static double sinBelow(double t) {
+		return t * (1 - t * t / 6);
+	}
+
+	/**
+	 * Lower bound on cos t for 0 <= t <= pi/2 (at least 0)
+	 */
+	private static double cosBelow(double t) {
+		double t2 = t * t;
+		return Math.max(0, 1 - t2 / 2 * (1 - t2 / 12 * (1 - t2 / 30)));
+	}
+}
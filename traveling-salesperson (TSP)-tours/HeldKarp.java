@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * HeldKarp
+ *
+ * Exact solver for the shortest path from a fixed first point through k
+ * inner points, in any order, to a fixed last point (the Held-Karp dynamic
+ * program over subsets): best[S][j] is the length of the shortest path from
+ * the first point through the inner points of the set S ending at j, and
+ *
+ *   best[S][j] = min over i in S - {j} of best[S - {j}][i] + d(i, j)
+ *
+ * which takes O(2^k k^2) time. A solver keeps its tables (2^k k entries)
+ * for the largest k it was made for and reuses them, so solving allocates
+ * nothing. A solver is used by one thread at a time: forThread gives every
+ * thread one solver that it keeps across calls (see Tour.windowOpt, whose
+ * workers are the threads of the common pool), so the tables are allocated
+ * once per worker, at most 12 MB each (k = MAX_INNER).
+ */
+class HeldKarp {
+
+	static final int MAX_INNER = 16; // (tables of 2^16 * 16 entries)
+
+	private static final ThreadLocal<HeldKarp> SOLVERS = new ThreadLocal<HeldKarp>();
+
+	private final int maxInner;
+	private final double[] best; // best[S * k + j]
+	private final int[] parent; // the point before j on that path (-1 for the first point)
+
+	HeldKarp(int maxInner) {
+		this.maxInner = maxInner;
+		best = new double[(1 << maxInner) * maxInner];
+		parent = new int[(1 << maxInner) * maxInner];
+	}
+
+	/**
+	 * The solver of the calling thread, for at least k inner points: the
+	 * one it used before, unless that one was made for fewer points.
+	 */
+	static HeldKarp forThread(int k) {
+		HeldKarp solver = SOLVERS.get();
+		if (solver == null || solver.maxInner < k) {
+			solver = new HeldKarp(k);
+			SOLVERS.set(solver);
+		}
+		return solver;
+	}
+
+	/**
+	 * Finds the best order of the inner points.
+	 *
+	 * @param d Distances of the path's points: d[at + a * (k + 2) + b] from
+	 *          point a to point b, where point 0 is the first point, points
+	 *          1 .. k the inner ones in their current order, and k + 1 the
+	 *          last point
+	 * @param at Offset of the distances in d
+	 * @param k Number of inner points (at most the solver's maximum)
+	 * @param order Receives the best order at order[out .. out + k - 1], as
+	 *              inner points 1 .. k, if it is shorter than the current one
+	 * @param out Offset in order
+	 * @return How much shorter the best order is than the current one (0 if
+	 *         it is not shorter by more than rounding, order untouched)
+	 */
+	double solve(double[] d, int at, int k, int[] order, int out) {
+		int w = k + 2, full = (1 << k) - 1;
+		double current = 0;
+		for (int a = 0; a <= k; a++) // summed in path order, like the paths below
+			current += d[at + a * w + a + 1];
+		Arrays.fill(best, 0, (full + 1) * k, Double.POSITIVE_INFINITY);
+		for (int j = 0; j < k; j++) {
+			best[(1 << j) * k + j] = d[at + j + 1];
+			parent[(1 << j) * k + j] = -1;
+		}
+		for (int set = 1; set < full; set++) {
+			for (int j = 0; j < k; j++) {
+				double length = best[set * k + j];
+				if (length == Double.POSITIVE_INFINITY)
+					continue; // (j not in the set)
+				int row = at + (j + 1) * w + 1;
+				for (int t = 0; t < k; t++) {
+					if ((set & (1 << t)) != 0)
+						continue;
+					int next = (set | (1 << t)) * k + t;
+					double extended = length + d[row + t];
+					if (extended < best[next]) {
+						best[next] = extended;
+						parent[next] = j;
+					}
+				}
+			}
+		}
+		double shortest = Double.POSITIVE_INFINITY;
+		int last = -1;
+		for (int j = 0; j < k; j++) {
+			double length = best[full * k + j] + d[at + (j + 1) * w + k + 1];
+			if (length < shortest) {
+				shortest = length;
+				last = j;
+			}
+		}
+		if (!(shortest < current - 1e-12 * current))
+			return 0;
+		for (int set = full, p = k - 1; last >= 0; p--) { // back from the end
+			order[out + p] = last + 1;
+			int before = parent[set * k + last];
+			set &= ~(1 << last);
+			last = before;
+		}
+		return current - shortest;
+	}
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Metrics sink keeping one histogram per name.
+ *
+ * Values go into power-of-two buckets (bucket b holds the values v with
+ * 2^(b-1) <= v < 2^b, bucket 0 holds 0), so percentiles are exact up to a
+ * factor of 2, which is enough to tell a balanced tree (counts around
+ * log n) from a degenerate one (counts around n). Every bucket is a
+ * LongAdder, whose cells are striped across threads: concurrent queries
+ * recording the same value do not contend on one counter.
+ */
+public class HistogramMetrics implements Metrics {
+
+	private static final int BUCKETS = 64;
+
+	/**
+	 * Distribution of the values recorded under one name.
+	 */
+	public static class Histogram {
+		private final LongAdder[] buckets;
+		private final LongAdder count, sum;
+		private final LongAccumulator max;
+
+		Histogram() {
+			buckets = new LongAdder[BUCKETS];
+			for (int b = 0; b < BUCKETS; b++)
+				buckets[b] = new LongAdder();
+			count = new LongAdder();
+			sum = new LongAdder();
+			max = new LongAccumulator(Math::max, 0);
+		}
+
+		void add(long value) {
+			value = Math.max(0, value);
+			buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		public long getCount() { return count.sum(); }
+
+		public double getMean() {
+			long n = count.sum();
+			return (n == 0 ? 0 : (double) sum.sum() / n);
+		}
+
+		public long getMax() { return max.get(); }
+
+		/**
+		 * Upper bound of a percentile (0..100): the largest value of the bucket
+		 * holding it, capped by the maximum (0 if nothing was recorded).
+		 */
+		public long getPercentile(double percentile) {
+			long[] counts = new long[BUCKETS];
+			long n = 0;
+			for (int b = 0; b < BUCKETS; b++)
+				n += (counts[b] = buckets[b].sum());
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+			for (int b = 0; b < BUCKETS; b++) {
+				rank -= counts[b];
+				if (rank <= 0)
+					return Math.min(getMax(), (b == 0 ? 0 : (1L << b) - 1));
+			}
+			return getMax();
+		}
+
+		public String toString() {
+			return String.format(Locale.ROOT, "count=%d mean=%.1f p50=%d p99=%d max=%d", getCount(), getMean(),
+					getPercentile(50), getPercentile(99), getMax());
+		}
+	}
+
+	private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	public void record(String name, long value) {
+		Histogram h = histograms.get(name);
+		if (h == null)
+			h = histograms.computeIfAbsent(name, k -> new Histogram());
+		h.add(value);
+	}
+
+	/**
+	 * The histogram of a name (null if nothing was recorded under it).
+	 */
+	public Histogram get(String name) { return histograms.get(name); }
+
+	public void clear() { histograms.clear(); }
+
+	/**
+	 * One line per name, in alphabetical order.
+	 */
+	public String toString() {
+		ArrayList<String> names = new ArrayList<String>(histograms.keySet());
+		Collections.sort(names);
+		StringBuilder sb = new StringBuilder();
+		for (String name : names)
+			sb.append(name).append('\t').append(histograms.get(name)).append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,158 @@
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic point sets for benchmarks: the same (kind, n, seed)
+ * always gives the same points, in the same order. Coordinates are distinct,
+ * as Tour requires.
+ *
+ *   - uniform: uniform in the unit square
+ *   - clustered: Gaussian clusters of random spread around about sqrt(n)/2
+ *     uniform centers
+ *   - airports: longitude/latitude like real airport sets, i.e. clusters
+ *     whose sizes follow a power law (a few dense regions, many sparse
+ *     ones) inside the inhabited latitudes, labelled with IATA-like codes
+ *   - grid: the points of a square integer grid, in random order (many
+ *     equal distances)
+ *   - collinear: points on one line, in random order (degenerate wrappers
+ *     and cuts)
+ */
+public class Instances {
+
+	public static final String[] KINDS = { "uniform", "clustered", "airports" };
+
+	/**
+	 * The point set of a given kind.
+	 */
+	public static ArrayList<Airport> generate(String kind, int n, long seed) throws Exception {
+		if (kind.equals("uniform"))
+			return uniform(n, seed);
+		else if (kind.equals("clustered"))
+			return clustered(n, seed);
+		else if (kind.equals("airports"))
+			return airports(n, seed);
+		else if (kind.equals("grid"))
+			return grid(n, seed);
+		else if (kind.equals("collinear"))
+			return collinear(n, seed);
+		throw new Exception("Unknown instance kind: " + kind);
+	}
+
+	public static ArrayList<Airport> uniform(int n, long seed) {
+		Random r = new Random(seed);
+		Distinct pts = new Distinct(n);
+		while (pts.size() < n)
+			pts.add(r.nextDouble(), r.nextDouble());
+		return pts.list;
+	}
+
+	public static ArrayList<Airport> clustered(int n, long seed) {
+		Random r = new Random(seed);
+		int k = Math.max(1, (int) Math.sqrt(n) / 2);
+		double[] cx = new double[k], cy = new double[k], spread = new double[k];
+		for (int c = 0; c < k; c++) {
+			cx[c] = r.nextDouble();
+			cy[c] = r.nextDouble();
+			spread[c] = 0.1 / Math.sqrt(k) * (0.2 + r.nextDouble());
+		}
+		Distinct pts = new Distinct(n);
+		while (pts.size() < n) {
+			int c = r.nextInt(k);
+			pts.add(cx[c] + r.nextGaussian() * spread[c], cy[c] + r.nextGaussian() * spread[c]);
+		}
+		return pts.list;
+	}
+
+	public static ArrayList<Airport> airports(int n, long seed) {
+		Random r = new Random(seed);
+		int k = Math.max(1, n / 50);
+		double[] cx = new double[k], cy = new double[k], weight = new double[k];
+		double total = 0;
+		for (int c = 0; c < k; c++) {
+			cx[c] = -180 + 360 * r.nextDouble();
+			cy[c] = -45 + 115 * r.nextDouble(); // 45 S .. 70 N
+			weight[c] = Math.pow(c + 1, -1.2); // Zipf-like region sizes
+			total += weight[c];
+		}
+		Distinct pts = new Distinct(n);
+		while (pts.size() < n) {
+			double u = r.nextDouble() * total;
+			int c = 0;
+			while (c < k - 1 && u >= weight[c])
+				u -= weight[c++];
+			double x = cx[c] + r.nextGaussian() * 3, y = cy[c] + r.nextGaussian() * 2;
+			if (x >= -180 && x <= 180 && y >= -90 && y <= 90)
+				pts.add(x, y);
+		}
+		return pts.list;
+	}
+
+	public static ArrayList<Airport> grid(int n, long seed) {
+		int side = (int) Math.ceil(Math.sqrt(n));
+		int[] order = new int[n];
+		for (int k = 0; k < n; k++)
+			order[k] = k;
+		Random r = new Random(seed);
+		for (int k = n - 1; k > 0; k--) {
+			int j = r.nextInt(k + 1), t = order[k];
+			order[k] = order[j];
+			order[j] = t;
+		}
+		Distinct pts = new Distinct(n);
+		for (int k : order)
+			pts.add(k % side, k / side);
+		return pts.list;
+	}
+
+	public static ArrayList<Airport> collinear(int n, long seed) {
+		Random r = new Random(seed);
+		Distinct pts = new Distinct(n);
+		while (pts.size() < n) {
+			double t = r.nextDouble();
+			pts.add(t, 0.5 * t + 0.25);
+		}
+		return pts.list;
+	}
+
+	/**
+	 * IATA-like code of the k-th point: AAA, AAB, ..., ZZZ, then AAAA, ...
+	 */
+	static String code(int k) {
+		StringBuilder sb = new StringBuilder();
+		int len = 3;
+		for (long span = 26 * 26 * 26; k >= span; span *= 26) {
+			k -= span;
+			len++;
+		}
+		for (int i = 0; i < len; i++) {
+			sb.append((char) ('A' + k % 26));
+			k /= 26;
+		}
+		return sb.reverse().toString();
+	}
+
+	/**
+	 * Collects points with distinct coordinates.
+	 */
+	static class Distinct {
+		final ArrayList<Airport> list;
+		final HashSet<SimpleImmutableEntry<Double, Double>> seen;
+
+		Distinct(int n) {
+			list = new ArrayList<Airport>(n);
+			seen = new HashSet<SimpleImmutableEntry<Double, Double>>(2 * n);
+		}
+
+		int size() { return list.size(); }
+
+		void add(double x, double y) {
+			x += 0.0; // -0.0 and 0.0 are the same coordinate
+			y += 0.0;
+			if (!seen.add(new SimpleImmutableEntry<Double, Double>(x, y)))
+				return;
+			list.add(new Airport(code(list.size()), "", "", "", x, y));
+		}
+	}
+}
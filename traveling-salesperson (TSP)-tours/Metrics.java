@@ -0,0 +1,53 @@
+/**
+ * Metrics
+ *
+ * Receives the work done by single operations of the search trees (see
+ * WKDTree.setMetrics and AAXTree.setMetrics): after each instrumented
+ * operation, record is called once per count with the name of the count and
+ * its value for that operation, e.g. ("spatial.find.visited", 17). A typical
+ * sink keeps a histogram per name (see HistogramMetrics).
+ *
+ * Counting is off unless the JVM is started with -Dtsp.metrics=true. ENABLED
+ * is a static final constant, so when it is false the JIT compiler removes
+ * the counting code altogether and the trees run as if uninstrumented.
+ *
+ * record may be called from several threads at once (queries run in
+ * parallel under ConcurrentTour), so sinks must be thread-safe.
+ */
+public interface Metrics {
+
+	boolean ENABLED = Boolean.getBoolean("tsp.metrics");
+
+	/**
+	 * The sink that drops everything (the default of the trees).
+	 */
+	Metrics NONE = (name, value) -> {};
+
+	void record(String name, long value);
+
+	/**
+	 * The counters of one operation in progress. Each thread reuses its own
+	 * (see probe), so counting allocates nothing.
+	 */
+	final class Probe {
+		int visited; // nodes visited
+		int leaves; // points tested
+		int pruned; // subtrees skipped by their wrapper
+		int comparisons; // key comparisons
+		int rotations; // skews and splits that rotated
+
+		private Probe reset() {
+			visited = leaves = pruned = comparisons = rotations = 0;
+			return this;
+		}
+	}
+
+	ThreadLocal<Probe> PROBES = ThreadLocal.withInitial(Probe::new);
+
+	/**
+	 * The zeroed probe of the calling thread, or null if counting is off.
+	 */
+	static Probe probe() {
+		return (ENABLED ? PROBES.get().reset() : null);
+	}
+}
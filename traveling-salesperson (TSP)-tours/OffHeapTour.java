@@ -0,0 +1,494 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * OffHeapTour
+ *
+ * A tour whose data lives outside the Java heap, in direct NIO buffers, so
+ * that the garbage collector never scans or copies it and GC pauses do not
+ * grow with the size of the tour. Every point has an id (its index in the
+ * tour it was made from), and the following are stored off-heap:
+ *
+ *   - coord[2id], coord[2id+1]: coordinates
+ *   - labels: UTF-8 bytes of all labels, with labelStart[id] .. labelStart[id+1]
+ *   - slots: open-addressing hash table from label to id
+ *   - order[pos]: id of the point at tour position pos
+ *   - position[id]: tour position of the point
+ *   - the spatial index, in the flat breadth-first layout of StaticWKDTree,
+ *     with leaves referring to point ids
+ *
+ * The set of points is fixed once created (see of), but the order can be
+ * optimized with reverse, twoOpt and allTwoOpt, which follow the same rules
+ * as in Tour. Queries take and return labels instead of point objects, so
+ * nothing is materialized on the heap (see point for materializing a point).
+ *
+ * Snapshots: save writes the buffers to a file, and load memory-maps such a
+ * file, so restoring an off-heap tour costs no parsing and no index
+ * building. This holds for the off-heap tour only: a Tour made from it
+ * (toTour) builds its locator and spatial index from scratch, as appendAll
+ * does for any new tour, which takes O(n log n) time. Like the tour itself,
+ * a snapshot holds only the label and the coordinates of every point: any
+ * other fields of the original points (an Airport's name, city and
+ * country) are not stored, and points materialized from a snapshot have
+ * whatever the PointFactory gives them. The file layout (version 1, native
+ * byte order, which load checks) is a header of HEADER_INTS ints
+ *
+ *   MAGIC, VERSION, byte order (1 = little endian), n, labelBytes,
+ *   hash capacity, nodes, height
+ *
+ * followed by the sections coord, labels, labelStart, slots, order,
+ * position, cutDim, cutVal, box, child, each starting at a multiple of 8.
+ */
+public class OffHeapTour {
+
+	private final int n; // number of points
+	private final DoubleBuffer coord;
+	private final ByteBuffer labels;
+	private final IntBuffer labelStart;
+	private final IntBuffer slots; // label hash table (id + 1, 0 = empty)
+	private final int mask; // slots.capacity() - 1
+	private final IntBuffer order;
+	private final IntBuffer position;
+	// spatial index (see StaticWKDTree)
+	private final IntBuffer cutDim;
+	private final DoubleBuffer cutVal;
+	private final DoubleBuffer box;
+	private final IntBuffer child;
+	private final int height;
+	private final int[] header; // see the class comment
+	private final ByteBuffer[] sections; // raw bytes of the buffers above, in file order
+
+	private static final int MAGIC = 0x54535054; // "TSPT"
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 8;
+	private static final int ORDER = 4, POSITION = 5; // indices of these sections
+
+	/**
+	 * Section sizes in bytes, in file order, for the given header.
+	 */
+	private static long[] sectionBytes(int[] header) {
+		long n = header[3], labelBytes = header[4], capacity = header[5], nodes = header[6];
+		return new long[] { 16 * n, labelBytes, 4 * (n + 1), 4 * capacity, 4 * n, 4 * n, 4 * nodes, 8 * nodes,
+				32 * nodes, 4 * nodes };
+	}
+
+	private static ByteBuffer allocate(long bytes) {
+		if (bytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Buffer too large");
+		return ByteBuffer.allocateDirect((int) Math.max(bytes, 1)).order(ByteOrder.nativeOrder());
+	}
+
+	private OffHeapTour(int[] header, ByteBuffer[] sections) {
+		this.header = header;
+		this.sections = sections;
+		n = header[3];
+		height = header[7];
+		mask = header[5] - 1;
+		coord = sections[0].asDoubleBuffer();
+		labels = sections[1];
+		labelStart = sections[2].asIntBuffer();
+		slots = sections[3].asIntBuffer();
+		order = sections[ORDER].asIntBuffer();
+		position = sections[POSITION].asIntBuffer();
+		cutDim = sections[6].asIntBuffer();
+		cutVal = sections[7].asDoubleBuffer();
+		box = sections[8].asDoubleBuffer();
+		child = sections[9].asIntBuffer();
+	}
+
+	private static OffHeapTour allocate(int n, int labelBytes, int nodes, int height) {
+		int capacity = Integer.highestOneBit(Math.max(2 * n, 2) - 1) << 1;
+		int little = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+		int[] header = { MAGIC, VERSION, little, n, labelBytes, capacity, nodes, height };
+		long[] bytes = sectionBytes(header);
+		ByteBuffer[] sections = new ByteBuffer[bytes.length];
+		for (int k = 0; k < bytes.length; k++)
+			sections[k] = allocate(bytes[k]);
+		return new OffHeapTour(header, sections);
+	}
+
+	/**
+	 * Copy a tour (points, order and spatial index) off the heap. Afterwards
+	 * the original tour can be discarded. An off-heap tour measures planar
+	 * distances, so only planar tours can be copied (see WKDTree.freeze).
+	 *
+	 * @param tour The tour to copy
+	 * @return The off-heap copy
+	 * @throws Exception If the tour has another metric
+	 */
+	public static <LPoint extends LabeledPoint2D> OffHeapTour of(Tour<LPoint> tour) throws Exception {
+		ArrayList<LPoint> pts = tour.list();
+		StaticWKDTree<LPoint> index = tour.freezeSpatial();
+		int n = pts.size();
+		int labelBytes = 0;
+		ArrayList<byte[]> encoded = new ArrayList<byte[]>(n);
+		for (LPoint pt : pts) {
+			byte[] b = pt.getLabel().getBytes(StandardCharsets.UTF_8);
+			encoded.add(b);
+			labelBytes += b.length;
+		}
+		int nodes = index.cutDim.length;
+		OffHeapTour result = allocate(n, labelBytes, nodes, index.height);
+		int offset = 0;
+		for (int id = 0; id < n; id++) {
+			LPoint pt = pts.get(id);
+			result.coord.put(2 * id, pt.getX());
+			result.coord.put(2 * id + 1, pt.getY());
+			result.labelStart.put(id, offset);
+			result.labels.put(offset, encoded.get(id));
+			offset += encoded.get(id).length;
+			result.order.put(id, id);
+			result.position.put(id, id);
+			int h = pt.getLabel().hashCode() & result.mask;
+			while (result.slots.get(h) != 0)
+				h = (h + 1) & result.mask;
+			result.slots.put(h, id + 1);
+		}
+		result.labelStart.put(n, offset);
+		for (int i = 0; i < nodes; i++) {
+			result.cutDim.put(i, index.cutDim[i]);
+			result.cutVal.put(i, index.cutVal[i]);
+			for (int k = 0; k < 4; k++)
+				result.box.put(4 * i + k, index.box[4 * i + k]);
+			if (index.cutDim[i] >= 0)
+				result.child.put(i, index.child[i]);
+			else { // leaf: refer to the point id instead of the leaf order
+				LabeledPoint2D pt = (LabeledPoint2D) index.points[index.child[i]];
+				result.child.put(i, result.id(pt.getLabel()));
+			}
+		}
+		return result;
+	}
+
+	public int size() { return n; }
+
+	/**
+	 * Write a snapshot of the tour (including its current order) to a file.
+	 *
+	 * @param file The file to (over)write
+	 */
+	public void save(Path file) throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer head = ByteBuffer.allocate(4 * HEADER_INTS).order(ByteOrder.nativeOrder());
+			for (int value : header)
+				head.putInt(value);
+			head.flip();
+			long offset = 0;
+			while (head.hasRemaining())
+				offset += ch.write(head, offset);
+			long[] bytes = sectionBytes(header);
+			for (int k = 0; k < sections.length; k++) {
+				offset = (offset + 7) & ~7L;
+				ByteBuffer data = sections[k].duplicate();
+				data.clear().limit((int) bytes[k]);
+				while (data.hasRemaining())
+					offset += ch.write(data, offset);
+			}
+			ch.force(true);
+		}
+	}
+
+	/**
+	 * Restore a snapshot written by save. The file is opened read-only and
+	 * memory-mapped, so pages are read on first use, except for the order
+	 * (order and position), which is copied into direct buffers: changes
+	 * (twoOpt, ...) are never written back to the file.
+	 *
+	 * @param file The snapshot file
+	 * @return The restored tour
+	 * @throws Exception If the file is not a snapshot of a supported version
+	 *                   in the native byte order
+	 */
+	public static OffHeapTour load(Path file) throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (ch.size() < 4 * HEADER_INTS)
+				throw new Exception("Not a tour snapshot");
+			ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, 4 * HEADER_INTS)
+					.order(ByteOrder.nativeOrder());
+			int[] header = new int[HEADER_INTS];
+			for (int k = 0; k < HEADER_INTS; k++)
+				header[k] = head.getInt(4 * k);
+			if (header[0] != MAGIC)
+				throw new Exception("Not a tour snapshot (or written with another byte order)");
+			if (header[1] != VERSION)
+				throw new Exception("Unsupported snapshot version " + header[1]);
+			if (header[2] != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0))
+				throw new Exception("Tour snapshot written with another byte order");
+			long[] bytes = sectionBytes(header);
+			ByteBuffer[] sections = new ByteBuffer[bytes.length];
+			long offset = 4 * HEADER_INTS;
+			for (int k = 0; k < bytes.length; k++) {
+				offset = (offset + 7) & ~7L;
+				if (offset + bytes[k] > ch.size())
+					throw new Exception("Truncated tour snapshot");
+				ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, offset, bytes[k]);
+				if (k == ORDER || k == POSITION) // (the only sections that change)
+					sections[k] = allocate(bytes[k]).put(mapped).clear();
+				else
+					sections[k] = mapped.order(ByteOrder.nativeOrder());
+				offset += bytes[k];
+			}
+			return new OffHeapTour(header, sections);
+		}
+	}
+
+	/**
+	 * Creates a point object from a label and coordinates (all that the
+	 * off-heap tour keeps of a point).
+	 */
+	public interface PointFactory<LPoint extends LabeledPoint2D> {
+		LPoint create(String label, double x, double y);
+	}
+
+	/**
+	 * Materialize the point at a tour position (e.g., as an Airport with
+	 * (label, x, y) -> new Airport(label, "", "", "", x, y)). Nothing is kept
+	 * on the heap by the tour itself.
+	 */
+	public <LPoint extends LabeledPoint2D> LPoint point(int pos, PointFactory<LPoint> factory) {
+		int id = order.get(pos);
+		return factory.create(label(id), coord.get(2 * id), coord.get(2 * id + 1));
+	}
+
+	/**
+	 * Materialize the whole tour as a Tour (with locator and spatial index),
+	 * for when it has to change beyond reordering. The Tour builds both
+	 * indices anew (see the class comment).
+	 */
+	public <LPoint extends LabeledPoint2D> Tour<LPoint> toTour(PointFactory<LPoint> factory) throws Exception {
+		ArrayList<LPoint> pts = new ArrayList<LPoint>(n);
+		for (int pos = 0; pos < n; pos++)
+			pts.add(point(pos, factory));
+		Tour<LPoint> tour = new Tour<LPoint>();
+		tour.appendAll(pts);
+		return tour;
+	}
+
+	/**
+	 * Id of the point with the given label, or -1 if there is none.
+	 */
+	private int id(String label) {
+		byte[] b = label.getBytes(StandardCharsets.UTF_8);
+		int h = label.hashCode() & mask;
+		int id;
+		while ((id = slots.get(h) - 1) >= 0) {
+			int start = labelStart.get(id), len = labelStart.get(id + 1) - start;
+			if (len == b.length) {
+				int k = 0;
+				while (k < len && labels.get(start + k) == b[k])
+					k++;
+				if (k == len)
+					return id;
+			}
+			h = (h + 1) & mask;
+		}
+		return -1;
+	}
+
+	private String label(int id) {
+		int start = labelStart.get(id), len = labelStart.get(id + 1) - start;
+		byte[] b = new byte[len];
+		labels.get(start, b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private double distanceSq(int a, int b) {
+		double dx = coord.get(2 * a) - coord.get(2 * b), dy = coord.get(2 * a + 1) - coord.get(2 * b + 1);
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * The labels in tour order.
+	 */
+	public ArrayList<String> list() {
+		ArrayList<String> result = new ArrayList<String>(n);
+		for (int pos = 0; pos < n; pos++)
+			result.add(label(order.get(pos)));
+		return result;
+	}
+
+	/**
+	 * Tour position of the point with the given label, or -1 if there is none.
+	 */
+	public int indexOf(String label) {
+		int id = id(label);
+		return (id < 0 ? -1 : position.get(id));
+	}
+
+	/**
+	 * Sum of the squared edge lengths (as Tour.cost).
+	 */
+	public double cost() {
+		double sum = 0.0;
+		for (int pos = 0; pos < n; pos++)
+			sum += distanceSq(order.get(pos), order.get(pos + 1 < n ? pos + 1 : 0));
+		return sum;
+	}
+
+	private void reverseSubtour(int loc1, int loc2) {
+		if (loc1 > loc2) {
+			int temp = loc1;
+			loc1 = loc2;
+			loc2 = temp;
+		}
+		for (int i = loc1 + 1, j = loc2; i < j; i++, j--) {
+			int pi = order.get(i), pj = order.get(j);
+			order.put(i, pj);
+			order.put(j, pi);
+			position.put(pj, i);
+			position.put(pi, j);
+		}
+	}
+
+	public void reverse(String label1, String label2) throws Exception {
+		int a = id(label1), b = id(label2);
+		if (a < 0 || b < 0)
+			throw new Exception("Label not found");
+		if (a == b)
+			throw new Exception("Duplicate label");
+		reverseSubtour(position.get(a), position.get(b));
+	}
+
+	public boolean twoOpt(String label1, String label2) throws Exception {
+		int a = id(label1), b = id(label2);
+		if (a < 0 || b < 0)
+			throw new Exception("Label not found");
+		return twoOptAt(position.get(a), position.get(b));
+	}
+
+	private boolean twoOptAt(int i, int j) {
+		if (i == j)
+			return false;
+		int pi = order.get(i), pi1 = order.get((i + 1) % n);
+		int pj = order.get(j), pj1 = order.get((j + 1) % n);
+		double newDistance = distanceSq(pi, pj) + distanceSq(pi1, pj1);
+		double oldDistance = distanceSq(pi, pi1) + distanceSq(pj, pj1);
+		if (newDistance - oldDistance < 0) {
+			reverseSubtour(i, j);
+			return true;
+		}
+		return false;
+	}
+
+	public int allTwoOpt() {
+		int result = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				if (twoOptAt(i, j))
+					result++;
+			}
+		}
+		return result;
+	}
+
+	// -----------------------------------------------------------------
+	// Spatial queries (same conventions as WKDTree / StaticWKDTree)
+	// -----------------------------------------------------------------
+
+	private double boxDistanceSq(int i, double x, double y) {
+		double dx = 0, dy = 0;
+		double lx = box.get(4 * i), ly = box.get(4 * i + 1), hx = box.get(4 * i + 2), hy = box.get(4 * i + 3);
+		if (x < lx)
+			dx = lx - x;
+		else if (x > hx)
+			dx = x - hx;
+		if (y < ly)
+			dy = ly - y;
+		else if (y > hy)
+			dy = y - hy;
+		return dx * dx + dy * dy;
+	}
+
+	private double pointDistanceSq(int id, double x, double y) {
+		double dx = coord.get(2 * id) - x, dy = coord.get(2 * id + 1) - y;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Label of the point with the given coordinates, or null.
+	 */
+	public String find(Point2D pt) {
+		double x = pt.getX(), y = pt.getY();
+		if (n == 0)
+			return null;
+		int i = 0;
+		while (cutDim.get(i) >= 0) {
+			if (x < box.get(4 * i) || y < box.get(4 * i + 1) || x > box.get(4 * i + 2) || y > box.get(4 * i + 3))
+				return null;
+			double c = (cutDim.get(i) == 0 ? x : y);
+			i = (c < cutVal.get(i) ? child.get(i) : child.get(i) + 1);
+		}
+		int id = child.get(i);
+		return (coord.get(2 * id) == x && coord.get(2 * id + 1) == y ? label(id) : null);
+	}
+
+	/**
+	 * Label of the fixed-radius nearest neighbor (see WKDTree.fixedRadNN), or
+	 * null.
+	 */
+	public String fixedRadNN(Point2D q, double sqRadius) {
+		double x = q.getX(), y = q.getY();
+		double limit = sqRadius * sqRadius;
+		int best = -1;
+		double bestDist = Double.MAX_VALUE;
+		if (n == 0)
+			return null;
+		int[] stack = new int[height + 2];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int i = stack[--top];
+			if (cutDim.get(i) < 0) {
+				int p = child.get(i);
+				double px = coord.get(2 * p), py = coord.get(2 * p + 1);
+				double d = pointDistanceSq(p, x, y);
+				if ((px != x || py != y) && d < limit && (best < 0 || d < bestDist || (d == bestDist
+						&& (px < coord.get(2 * best) || (px == coord.get(2 * best) && py < coord.get(2 * best + 1)))))) {
+					best = p;
+					bestDist = d;
+				}
+				continue;
+			}
+			double d = boxDistanceSq(i, x, y);
+			if (d >= limit || (best >= 0 && d > bestDist))
+				continue;
+			int l = child.get(i), r = l + 1;
+			boolean leftFirst = boxDistanceSq(l, x, y) <= boxDistanceSq(r, x, y);
+			stack[top++] = (leftFirst ? r : l);
+			stack[top++] = (leftFirst ? l : r);
+		}
+		return (best < 0 ? null : label(best));
+	}
+
+	/**
+	 * Labels of the points within the disk (see WKDTree.circularRange).
+	 */
+	public ArrayList<String> circularRange(Point2D center, float sqRadius) {
+		double x = center.getX(), y = center.getY();
+		ArrayList<String> list = new ArrayList<String>();
+		if (n == 0)
+			return list;
+		int[] stack = new int[height + 2];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int i = stack[--top];
+			if (cutDim.get(i) < 0) {
+				if (pointDistanceSq(child.get(i), x, y) <= sqRadius)
+					list.add(label(child.get(i)));
+			} else if (boxDistanceSq(i, x, y) <= sqRadius) {
+				stack[top++] = child.get(i) + 1;
+				stack[top++] = child.get(i);
+			}
+		}
+		return list;
+	}
+}
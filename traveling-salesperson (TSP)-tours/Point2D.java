@@ -7,6 +7,7 @@
 public class Point2D {
 	final static int DIM = 2; // spatial dimension
 	double[] coord; // coordinates
+	private volatile double[] unit; // see unitVector (null until needed; volatile, as queries may run in parallel)
 
 	/**
 	 * Default constructor.
@@ -79,6 +80,7 @@ public class Point2D {
 	 */
 	public void set(int i, double x) {
 		coord[i] = x;
+		unit = null;
 	}
 
 	/**
@@ -90,6 +92,7 @@ public class Point2D {
 	public void setLocation(double x, double y) {
 		coord[0] = x;
 		coord[1] = y;
+		unit = null;
 	}
 
 	/**
@@ -132,7 +135,8 @@ public class Point2D {
 	public double distance(Point2D pt) {
 		double sum = 0;
 		for (int i = 0; i < DIM; i++) {
-			sum += Math.pow(pt.coord[i] - coord[i], 2);
+			double d = pt.coord[i] - coord[i];
+			sum += d * d; // (exactly Math.pow(d, 2), without the call)
 		}
 		return (double) Math.sqrt(sum);
 	}
@@ -146,11 +150,29 @@ public class Point2D {
 	public double distanceSq(Point2D pt) {
 		double sum = 0;
 		for (int i = 0; i < DIM; i++) {
-			sum += Math.pow(pt.coord[i] - coord[i], 2);
+			double d = pt.coord[i] - coord[i];
+			sum += d * d; // (exactly Math.pow(d, 2), without the call)
 		}
 		return sum;
 	}
 
+	/**
+	 * The point as a unit vector (x, y, z) on the sphere, taking x as the
+	 * longitude and y as the latitude in degrees (see DistanceMetric.CHORD).
+	 * It is computed on first use and kept until the point is changed.
+	 * 
+	 * @return The unit vector (not to be modified)
+	 */
+	double[] unitVector() {
+		double[] u = unit;
+		if (u == null) {
+			double lon = Math.toRadians(coord[0]), lat = Math.toRadians(coord[1]);
+			u = new double[] { Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat) };
+			unit = u;
+		}
+		return u;
+	}
+
 	/**
 	 * String representation.
 	 * 
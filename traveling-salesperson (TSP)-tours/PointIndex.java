@@ -0,0 +1,60 @@
+import java.util.List;
+
+/**
+ * PointIndex
+ *
+ * The indices 0 .. n - 1 of the points of a fixed set, in the order given,
+ * as DistanceCache and DistanceMatrix number them. The points are keyed by
+ * identity (not by coordinates) in an open-addressing table with linear
+ * probing, at most half full, that is built once and then only read: any
+ * number of threads may look points up, and any number of indices may be
+ * built over the same points, which are left untouched.
+ */
+class PointIndex {
+
+	static final int MAX_POINTS = 1 << 29; // (the table has twice as many slots)
+
+	private final Point2D[] keys; // null where free
+	private final int[] values;
+	private final int mask;
+
+	/**
+	 * @param pts The points (a point given twice gets its last index)
+	 * @throws Exception If there are more than MAX_POINTS points
+	 */
+	PointIndex(List<? extends LabeledPoint2D> pts) throws Exception {
+		int n = pts.size();
+		if (n > MAX_POINTS)
+			throw new Exception("Too many points to index");
+		int size = Integer.highestOneBit(Math.max(1, n) * 2 - 1) * 2;
+		keys = new Point2D[size];
+		values = new int[size];
+		mask = size - 1;
+		for (int i = 0; i < n; i++) {
+			Point2D p = pts.get(i).getPoint2D();
+			int s = home(p);
+			while (keys[s] != null && keys[s] != p)
+				s = (s + 1) & mask;
+			keys[s] = p;
+			values[s] = i;
+		}
+	}
+
+	/**
+	 * index of a point of the set, or -1
+	 */
+	int indexOf(Point2D p) {
+		for (int s = home(p);; s = (s + 1) & mask) {
+			Point2D k = keys[s];
+			if (k == p)
+				return values[s];
+			if (k == null)
+				return -1;
+		}
+	}
+
+	private int home(Point2D p) {
+		int h = System.identityHashCode(p);
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
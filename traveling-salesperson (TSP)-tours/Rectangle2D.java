@@ -121,9 +121,9 @@ public class Rectangle2D {
 			double lc = low.get(i); // low's i-th coordinate
 			double hc = high.get(i); // high's i-th coordinate
 			if (coord < lc) { // to the left of the rectangle
-				sum += Math.pow((lc - coord), 2);
+				sum += (lc - coord) * (lc - coord);
 			} else if (coord > hc) {
-				sum += Math.pow((coord - hc), 2);
+				sum += (coord - hc) * (coord - hc);
 			}
 		}
 		return sum;
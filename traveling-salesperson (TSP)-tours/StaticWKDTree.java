@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * StaticWKDTree
+ *
+ * A frozen, read-only copy of a WKDTree (see WKDTree.freeze). The nodes are
+ * numbered in breadth-first order and stored in parallel primitive arrays
+ * instead of node objects, so the top levels of the tree share a few cache
+ * lines and a search walks through arrays instead of chasing pointers:
+ *
+ *   - cutDim[i]: the cutting dimension, or -1 if node i is a leaf
+ *   - cutVal[i]: the cutting value
+ *   - box[4i .. 4i+3]: the wrapper (low x, low y, high x, high y)
+ *   - child[i]: index of the left child (the right child is child[i] + 1),
+ *     or for a leaf the index of its point
+ *   - coord[2p], coord[2p+1]: the coordinates of point p (leaf order)
+ *
+ * The queries return the same answers as the corresponding WKDTree queries.
+ * Their search stacks (height + 2 entries each) are kept per thread, so a
+ * query allocates nothing but its result, and several threads can query
+ * the same tree.
+ */
+public class StaticWKDTree<LPoint extends LabeledPoint2D> {
+
+	final int[] cutDim; // (package-private: read by OffHeapTour)
+	final double[] cutVal;
+	final double[] box;
+	final int[] child;
+	final double[] coord;
+	final Object[] points; // LPoint (no generic arrays in Java)
+	final int height; // longest root-to-leaf path (sizes the search stacks)
+	private final ThreadLocal<int[]> stacks; // search stack of each thread
+	private int visited; // nodes visited by the last search
+
+	/**
+	 * Constructor (used by WKDTree.freeze).
+	 */
+	StaticWKDTree(int[] cutDim, double[] cutVal, double[] box, int[] child, double[] coord, Object[] points,
+			int height) {
+		this.cutDim = cutDim;
+		this.cutVal = cutVal;
+		this.box = box;
+		this.child = child;
+		this.coord = coord;
+		this.points = points;
+		this.height = height;
+		stacks = ThreadLocal.withInitial(() -> new int[height + 2]);
+	}
+
+	public int size() { return points.length; }
+
+	/**
+	 * Number of nodes visited by the last search.
+	 */
+	public int getNodesVisited() { return visited; }
+
+	@SuppressWarnings("unchecked")
+	private LPoint point(int p) {
+		return (LPoint) points[p];
+	}
+
+	/**
+	 * Squared distance from (x, y) to the wrapper of node i (0 if inside).
+	 */
+	private double boxDistanceSq(int i, double x, double y) {
+		double dx = 0, dy = 0;
+		if (x < box[4 * i])
+			dx = box[4 * i] - x;
+		else if (x > box[4 * i + 2])
+			dx = x - box[4 * i + 2];
+		if (y < box[4 * i + 1])
+			dy = box[4 * i + 1] - y;
+		else if (y > box[4 * i + 3])
+			dy = y - box[4 * i + 3];
+		return dx * dx + dy * dy;
+	}
+
+	private double pointDistanceSq(int p, double x, double y) {
+		double dx = coord[2 * p] - x, dy = coord[2 * p + 1] - y;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Find a point by its coordinates.
+	 *
+	 * @param pt The coordinates being sought
+	 * @return A reference to the point where found or null if not found
+	 */
+	public LPoint find(Point2D pt) {
+		double x = pt.getX(), y = pt.getY();
+		int i = 0;
+		visited = 0;
+		if (points.length == 0)
+			return null;
+		while (cutDim[i] >= 0) {
+			visited++;
+			if (x < box[4 * i] || y < box[4 * i + 1] || x > box[4 * i + 2] || y > box[4 * i + 3])
+				return null;
+			double c = (cutDim[i] == 0 ? x : y);
+			i = (c < cutVal[i] ? child[i] : child[i] + 1);
+		}
+		visited++;
+		int p = child[i];
+		return (coord[2 * p] == x && coord[2 * p + 1] == y ? point(p) : null);
+	}
+
+	/**
+	 * Fixed-radius nearest neighbor, with the same conventions as
+	 * WKDTree.fixedRadNN: the point at q itself is skipped, the search disk has
+	 * squared radius sqRadius^2, and ties are broken by x, then y.
+	 */
+	public LPoint fixedRadNN(Point2D q, double sqRadius) {
+		double x = q.getX(), y = q.getY();
+		double limit = sqRadius * sqRadius;
+		int best = -1;
+		double bestDist = Double.MAX_VALUE;
+		visited = 0;
+		if (points.length == 0)
+			return null;
+		int[] stack = stacks.get();
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int i = stack[--top];
+			visited++;
+			if (cutDim[i] < 0) {
+				int p = child[i];
+				double d = pointDistanceSq(p, x, y);
+				if ((coord[2 * p] != x || coord[2 * p + 1] != y) && d < limit
+						&& (best < 0 || d < bestDist || (d == bestDist && (coord[2 * p] < coord[2 * best]
+								|| (coord[2 * p] == coord[2 * best] && coord[2 * p + 1] < coord[2 * best + 1]))))) {
+					best = p;
+					bestDist = d;
+				}
+				continue;
+			}
+			double d = boxDistanceSq(i, x, y);
+			if (d >= limit || (best >= 0 && d > bestDist))
+				continue;
+			pushCloserLast(stack, top, i, x, y);
+			top += 2;
+		}
+		return (best < 0 ? null : point(best));
+	}
+
+	/**
+	 * Circular range reporting, in the same order as WKDTree.circularRange.
+	 */
+	public ArrayList<LPoint> circularRange(Point2D center, float sqRadius) {
+		double x = center.getX(), y = center.getY();
+		ArrayList<LPoint> list = new ArrayList<LPoint>();
+		visited = 0;
+		if (points.length == 0)
+			return list;
+		int[] stack = stacks.get();
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int i = stack[--top];
+			visited++;
+			if (cutDim[i] < 0) {
+				if (pointDistanceSq(child[i], x, y) <= sqRadius)
+					list.add(point(child[i]));
+			} else if (boxDistanceSq(i, x, y) <= sqRadius) {
+				stack[top++] = child[i] + 1; // right is popped after left
+				stack[top++] = child[i];
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * k approximate nearest neighbors (see WKDTree.approxNearest); eps = 0
+	 * gives the exact k nearest neighbors.
+	 */
+	public ArrayList<LPoint> approxNearest(Point2D q, int k, double eps) {
+		double x = q.getX(), y = q.getY();
+		double factor = (1 + eps) * (1 + eps);
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(k + 1,
+				Comparator.comparingDouble((Integer p) -> pointDistanceSq(p, x, y)).reversed());
+		visited = 0;
+		if (points.length > 0 && k > 0) {
+			int[] stack = stacks.get();
+			int top = 0;
+			stack[top++] = 0;
+			while (top > 0) {
+				int i = stack[--top];
+				visited++;
+				if (cutDim[i] < 0) {
+					int p = child[i];
+					if (heap.size() < k)
+						heap.add(p);
+					else if (pointDistanceSq(p, x, y) < pointDistanceSq(heap.peek(), x, y)) {
+						heap.poll();
+						heap.add(p);
+					}
+				} else if (heap.size() < k || boxDistanceSq(i, x, y) * factor < pointDistanceSq(heap.peek(), x, y)) {
+					pushCloserLast(stack, top, i, x, y);
+					top += 2;
+				}
+			}
+		}
+		ArrayList<Integer> ids = new ArrayList<Integer>(heap);
+		ids.sort(Comparator.comparingDouble((Integer p) -> pointDistanceSq(p, x, y)));
+		ArrayList<LPoint> result = new ArrayList<LPoint>(ids.size());
+		for (int p : ids)
+			result.add(point(p));
+		return result;
+	}
+
+	public ArrayList<LPoint> nearest(Point2D q, int k) {
+		return approxNearest(q, k, 0);
+	}
+
+	/**
+	 * Push the two children of node i so that the closer one is popped first.
+	 */
+	private void pushCloserLast(int[] stack, int top, int i, double x, double y) {
+		int l = child[i], r = child[i] + 1;
+		if (boxDistanceSq(l, x, y) <= boxDistanceSq(r, x, y)) {
+			stack[top] = r;
+			stack[top + 1] = l;
+		} else {
+			stack[top] = l;
+			stack[top + 1] = r;
+		}
+	}
+}
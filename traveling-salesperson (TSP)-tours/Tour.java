@@ -1,4 +1,9 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.stream.IntStream;
 
 /**
  * Tour (skeleton)
@@ -12,13 +17,53 @@ import java.util.ArrayList;
 public class Tour<LPoint extends LabeledPoint2D> {
 	
 	private AAXTree<String, Integer> locator; // locator structure
-	private ArrayList<LPoint> tour; // the tour
+	private ArrayList<LPoint> tour; // the tour (slots; null slots are gaps)
 	private WKDTree<LPoint> spatial;
+	private final DistanceMetric metric; // distances between points (see DistanceMetric)
+	private int count; // number of points in the tour
+	private int modCount; // bumped on every structural change (used by cursors)
+	private TourListener<LPoint> listener; // told about every change (null if none)
+	
+	// While a savepoint is open, every reversal is logged as its slot range
+	// (reversing the same range again restores the slots exactly) and the
+	// cost change it made (undoCost[k] is the total change of the first k).
+	private ArrayList<Savepoint> savepoints; // open savepoints, oldest first
+	private int[] undoRange;
+	private double[] undoCost;
+	private int undoSize;
+	
+	// While a 2-Opt pass is recorded (see TourEvents), its counters are
+	// updated by twoOpt and reverse, and about one in SAMPLE_PERIOD index
+	// calls is timed (timing every call would cost as much as the call
+	// itself). The gaps between timed calls are random, since a fixed period
+	// would keep timing the same call of a repeating pattern (e.g., always the
+	// second lookup of twoOpt).
+	private TourEvents.TwoOptPass pass; // null if none
+	private int untilSample = 1; // index calls until the next timed one
+	private int sampleSeed = 1; // xorshift state for the gaps
+	private static final int SAMPLE_PERIOD = 32;
+	
+	// Removal leaves a gap (null) in its slot and insertion fills a gap, so the
+	// slot of a point never shifts. Windows of slots are respread evenly
+	// whenever their density leaves [1/4, 3/4] (as in a packed-memory array),
+	// which keeps runs of gaps short and costs O(log^2 n) amortized moves.
+	private static final int LEAF_WINDOW = 16;
 	
 	/**
 	 * constructor
 	 */
 	public Tour() { 
+		this(DistanceMetric.PLANAR);
+	}
+	
+	/**
+	 * A tour whose cost and optimizations measure distances with the given
+	 * metric (e.g., DistanceMetric.CHORD for airports given by longitude and
+	 * latitude). The spatial index uses the same metric. For an expensive
+	 * metric, pass a DistanceCache over the points instead.
+	 */
+	public Tour(DistanceMetric metric) { 
+		this.metric = metric;
 		// This structure is used for locating the index of an airport in the tour from its code (e.g., LAX)
 		// It is a dictionary (implemented as an AAXTree) storing key-value pairs,
 		// where the keys are strings and the values are indices
@@ -28,7 +73,13 @@ public class Tour<LPoint extends LabeledPoint2D> {
 		
 		// This is a 2-dimensional spatial index (implemented as a WKDTree) storing
 		// the points (LPoint).
-		spatial = new WKDTree<LPoint>();
+		spatial = new WKDTree<LPoint>(metric);
+		count = 0;
+		
+		savepoints = new ArrayList<Savepoint>();
+		undoRange = new int[32];
+		undoCost = new double[17];
+		undoSize = 0;
 	}
 	
 	/*
@@ -51,35 +102,468 @@ public class Tour<LPoint extends LabeledPoint2D> {
 			tour.add(pt); // append to tour
 			locator.insert(label, index); // save the location
 			spatial.insert(pt);
+			count++;
+			modCount++;
+			endSavepoints(0);
+			if (listener != null)
+				listener.appended(pt);
+		}
+	}
+	
+	/*
+	 * Appends all points of the collection, in order, as if by calling append on
+	 * each of them, except that a rejected point does not stop the others: every
+	 * rejected point is reported in the result instead. Duplicates are found by
+	 * sorting (once by label, once by coordinates) and the locator and the
+	 * spatial index are then rebuilt once, so a large batch costs O(n log n)
+	 * instead of one search and two tree inserts per point. Small batches into a
+	 * large tour go through append directly. The slot list is refilled and the
+	 * trees rebuilt over their old nodes, so a cleared tour (see clear) is
+	 * refilled without allocating them again.
+	 */
+	public AppendResult<LPoint> appendAll(Collection<LPoint> pts) throws Exception {
+		AppendResult<LPoint> result = new AppendResult<LPoint>();
+		ArrayList<LPoint> batch = new ArrayList<LPoint>(pts);
+		int base = count;
+		if (batch.size() * 8 < base) { // cheaper to insert one at a time
+			for (LPoint pt : batch) {
+				try {
+					append(pt);
+					result.addAppended(1);
+				} catch (Exception e) {
+					if ("Duplicate label".equals(e.getMessage()))
+						result.addDuplicateLabel(pt);
+					else
+						result.addDuplicateCoordinates(pt);
+				}
+			}
+			return result;
+		}
+		// ids 0..base-1 are tour points, base.. are batch points in input order
+		ArrayList<LPoint> all = new ArrayList<LPoint>(list());
+		all.addAll(batch);
+		tour.clear(); // (keeps its capacity)
+		tour.addAll(all.subList(0, base)); // drops any gaps
+		int n = all.size();
+		// sorting gives every id the number of its label group and coordinate group
+		Integer[] byLabel = new Integer[n];
+		Integer[] byCoord = new Integer[n];
+		for (int id = 0; id < n; id++) {
+			byLabel[id] = id;
+			byCoord[id] = id;
+		}
+		Arrays.sort(byLabel, Comparator.comparing((Integer id) -> all.get(id).getLabel()));
+		// (adding 0.0 maps -0.0 to 0.0, which Point2D.equals treats as equal)
+		Arrays.sort(byCoord, Comparator.comparingDouble((Integer id) -> all.get(id).getX() + 0.0)
+				.thenComparingDouble(id -> all.get(id).getY() + 0.0));
+		int[] labelGroup = new int[n];
+		int[] coordGroup = new int[n];
+		for (int k = 1; k < n; k++) {
+			LPoint prev = all.get(byLabel[k - 1]), cur = all.get(byLabel[k]);
+			labelGroup[byLabel[k]] = labelGroup[byLabel[k - 1]] + (prev.getLabel().equals(cur.getLabel()) ? 0 : 1);
+			prev = all.get(byCoord[k - 1]);
+			cur = all.get(byCoord[k]);
+			coordGroup[byCoord[k]] = coordGroup[byCoord[k - 1]] + (prev.getPoint2D().equals(cur.getPoint2D()) ? 0 : 1);
+		}
+		// replay the appends in order: the first taker of a label/coordinate wins
+		boolean[] labelTaken = new boolean[n];
+		boolean[] coordTaken = new boolean[n];
+		int[] index = new int[n]; // tour index of each accepted id, -1 if rejected
+		for (int id = 0; id < n; id++) {
+			LPoint pt = all.get(id);
+			if (labelTaken[labelGroup[id]]) {
+				result.addDuplicateLabel(pt);
+				index[id] = -1;
+			} else if (coordTaken[coordGroup[id]]) {
+				result.addDuplicateCoordinates(pt);
+				index[id] = -1;
+			} else {
+				labelTaken[labelGroup[id]] = true;
+				coordTaken[coordGroup[id]] = true;
+				index[id] = id;
+				if (id >= base) {
+					index[id] = tour.size();
+					tour.add(pt);
+				}
+			}
+		}
+		count = tour.size();
+		result.addAppended(count - base);
+		// rebuild both indices, the locator straight from the label order
+		ArrayList<String> keys = new ArrayList<String>(tour.size());
+		ArrayList<Integer> values = new ArrayList<Integer>(tour.size());
+		for (int id : byLabel) {
+			if (index[id] >= 0) {
+				keys.add(all.get(id).getLabel());
+				values.add(index[id]);
+			}
+		}
+		TourEvents.IndexRebuild event = new TourEvents.IndexRebuild();
+		event.begin();
+		long t = System.nanoTime();
+		locator.build(keys, values);
+		event.locatorTime = System.nanoTime() - t;
+		t = System.nanoTime();
+		spatial.build(tour);
+		event.spatialTime = System.nanoTime() - t;
+		event.end();
+		if (event.shouldCommit()) {
+			event.size = count;
+			event.appended = count - base;
+			event.commit();
+		}
+		modCount++;
+		endSavepoints(0);
+		if (listener != null) {
+			for (int slot = base; slot < tour.size(); slot++)
+				listener.appended(tour.get(slot));
+		}
+		return result;
+	}
+	
+	/*
+	 * The points of the tour in order (without gaps)
+	 */
+	public ArrayList<LPoint> list() { 
+		if (count == tour.size())
+			return tour;
+		ArrayList<LPoint> result = new ArrayList<LPoint>(count);
+		for (LPoint pt : tour) {
+			if (pt != null)
+				result.add(pt);
+		}
+		return result;
+	}
+	
+	public int size() { return count; }
+	
+	/*
+	 * Sets the listener told about every change of the tour once it has been
+	 * applied (e.g., a TourJournal), or removes it if null.
+	 */
+	public void setListener(TourListener<LPoint> listener) { this.listener = listener; }
+	
+	/*
+	 * Sets the sink of the per-operation work of the locator and the spatial
+	 * index (see AAXTree.setMetrics and WKDTree.setMetrics), or removes it if
+	 * null.
+	 */
+	public void setMetrics(Metrics metrics) {
+		locator.setMetrics(metrics);
+		spatial.setMetrics(metrics);
+	}
+	
+	public DistanceMetric getDistanceMetric() { return metric; }
+	
+	/*
+	 * Removes the point with the given label from the tour, joining its
+	 * predecessor to its successor. Its slot becomes a gap, so no other point
+	 * moves unless the neighbourhood has become too sparse.
+	 */
+	public LPoint remove(String label) throws Exception {
+		Integer loc = locator.find(label);
+		if (loc == null)
+			throw new Exception("Label not found");
+		LPoint pt = tour.get(loc);
+		tour.set(loc, null);
+		locator.delete(label);
+		spatial.delete(pt.getPoint2D());
+		count--;
+		modCount++;
+		endSavepoints(0);
+		if (count == 0)
+			tour.clear();
+		else
+			rebalance(loc, 0, null);
+		if (listener != null)
+			listener.removed(label);
+		return pt;
+	}
+	
+	/*
+	 * Inserts pt between the two consecutive tour points where it increases the
+	 * cost the least. The candidate edges are those incident to the nearest
+	 * neighbours of pt (found with the spatial index), which is where the
+	 * cheapest insertion lies for any locally optimized tour. The same errors
+	 * as append are thrown for duplicate labels and coordinates.
+	 */
+	public void insertCheapest(LPoint pt) throws Exception {
+		if (locator.find(pt.getLabel()) != null)
+			throw new Exception("Duplicate label");
+		else if (spatial.find(pt.getPoint2D()) != null)
+			throw new Exception("Duplicate coordinates");
+		if (count < 3) {
+			append(pt);
+			return;
 		}
+		Point2D p = pt.getPoint2D();
+		int bestSlot = -1;
+		double bestDelta = Double.MAX_VALUE;
+		for (LPoint c : spatial.nearest(p, INSERT_CANDIDATES)) {
+			int at = locator.find(c.getLabel());
+			int[] edges = { prevSlot(at), at };
+			for (int a : edges) {
+				Point2D pa = tour.get(a).getPoint2D();
+				Point2D pb = tour.get(nextSlot(a)).getPoint2D();
+				double delta = metric.distanceSq(pa, p) + metric.distanceSq(p, pb) - metric.distanceSq(pa, pb);
+				if (delta < bestDelta) {
+					bestDelta = delta;
+					bestSlot = a;
+				}
+			}
+		}
+		String after = tour.get(bestSlot).getLabel();
+		insertAfter(bestSlot, pt);
+		spatial.insert(pt);
+		if (listener != null)
+			listener.inserted(after, pt);
 	}
 	
-	public ArrayList<LPoint> list() { return tour; }
+	private static final int INSERT_CANDIDATES = 8; // neighbours tried by insertCheapest
+	
+	/*
+	 * Inserts pt into the tour right after the point with label 'label'. The
+	 * same errors as append are thrown for duplicate labels and coordinates.
+	 */
+	public void insertAfter(String label, LPoint pt) throws Exception {
+		Integer loc = locator.find(label);
+		if (loc == null)
+			throw new Exception("Label not found");
+		if (locator.find(pt.getLabel()) != null)
+			throw new Exception("Duplicate label");
+		else if (spatial.find(pt.getPoint2D()) != null)
+			throw new Exception("Duplicate coordinates");
+		insertAfter(loc, pt);
+		spatial.insert(pt);
+		if (listener != null)
+			listener.inserted(label, pt);
+	}
+	
+	/*
+	 * Returns the point following/preceding the point with the given label in
+	 * (cyclic) tour order.
+	 */
+	public LPoint next(String label) throws Exception {
+		Integer loc = locator.find(label);
+		if (loc == null)
+			throw new Exception("Label not found");
+		return tour.get(nextSlot(loc));
+	}
+	
+	public LPoint prev(String label) throws Exception {
+		Integer loc = locator.find(label);
+		if (loc == null)
+			throw new Exception("Label not found");
+		return tour.get(prevSlot(loc));
+	}
+	
+	/*
+	 * Returns the point with the given label, or null if it is not in the tour.
+	 */
+	public LPoint get(String label) {
+		Integer loc = locator.find(label);
+		return (loc == null ? null : tour.get(loc));
+	}
+	
+	/*
+	 * Circular range query on the points of the tour (see WKDTree).
+	 */
+	public ArrayList<LPoint> circularRange(Point2D center, float sqRadius) {
+		return spatial.circularRange(center, sqRadius);
+	}
+	
+	/*
+	 * Read-only flat copy of the spatial index (see WKDTree.freeze).
+	 */
+	public StaticWKDTree<LPoint> freezeSpatial() throws Exception {
+		return spatial.freeze();
+	}
+	
+	/*
+	 * helper method for insertCheapest: puts pt into the tour right after the
+	 * point in slot 'after' and registers it in the locator
+	 */
+	private void insertAfter(int after, LPoint pt) throws Exception {
+		int next = nextSlot(after);
+		count++;
+		modCount++;
+		endSavepoints(0);
+		if (next <= after) { // after is the last point: the slots behind it are free
+			if (after + 1 < tour.size())
+				tour.set(after + 1, pt);
+			else
+				tour.add(pt);
+			locator.insert(pt.getLabel(), after + 1);
+		} else if (next - after > 1) { // use the middle of the gap
+			int slot = (after + next + 1) / 2;
+			tour.set(slot, pt);
+			locator.insert(pt.getLabel(), slot);
+		} else
+			rebalance(after, 1, pt);
+	}
+	
+	/*
+	 * Find the smallest aligned window around slot whose density (counting
+	 * 'extra' additional points) is at most 3/4 when inserting or at least 1/4
+	 * when removing, and spread its points evenly. If pt is not null it is
+	 * placed right after slot. If no window qualifies, the whole array is
+	 * resized to density 1/2.
+	 */
+	private void rebalance(int slot, int extra, LPoint pt) throws Exception {
+		int width = LEAF_WINDOW;
+		while (true) {
+			int lo = (slot / width) * width;
+			int hi = Math.min(lo + width, tour.size());
+			if (lo == 0 && hi == tour.size()) {
+				respread(0, hi, slot, pt, Math.max(2 * count, 1));
+				return;
+			}
+			int occupied = extra;
+			for (int k = lo; k < hi; k++) {
+				if (tour.get(k) != null)
+					occupied++;
+			}
+			if (extra > 0 ? 4 * occupied <= 3 * (hi - lo) : 4 * occupied >= hi - lo) {
+				if (pt != null || width > LEAF_WINDOW)
+					respread(lo, hi, slot, pt, hi - lo);
+				return;
+			}
+			width *= 2;
+		}
+	}
+	
+	/*
+	 * helper method for rebalance: replace the slots [lo, hi) by 'width' slots
+	 * over which their points are spread evenly, adding pt (if not null) right
+	 * after slot 'after'
+	 */
+	private void respread(int lo, int hi, int after, LPoint pt, int width) throws Exception {
+		ArrayList<LPoint> points = new ArrayList<LPoint>();
+		for (int k = lo; k < hi; k++) {
+			if (tour.get(k) != null)
+				points.add(tour.get(k));
+			if (k == after && pt != null)
+				points.add(pt);
+			tour.set(k, null);
+		}
+		while (hi - lo < width) { // only when resizing the whole array
+			tour.add(null);
+			hi++;
+		}
+		while (hi - lo > width) {
+			tour.remove(--hi);
+		}
+		for (int k = 0; k < points.size(); k++) {
+			LPoint q = points.get(k);
+			int slot = lo + (int) ((long) k * width / points.size());
+			tour.set(slot, q);
+			if (q == pt)
+				locator.insert(q.getLabel(), slot);
+			else
+				locator.replace(q.getLabel(), slot);
+		}
+	}
+	
+	/*
+	 * Slot of the next/previous point in (cyclic) tour order. The scan stops
+	 * after one round, which only matters for an optimistic reader of a
+	 * ConcurrentTour that catches the slots while a writer respreads them.
+	 */
+	private int nextSlot(int slot) {
+		int steps = tour.size();
+		do {
+			slot = (slot + 1 < tour.size() ? slot + 1 : 0);
+		} while (tour.get(slot) == null && --steps > 0);
+		return slot;
+	}
+	
+	private int prevSlot(int slot) {
+		int steps = tour.size();
+		do {
+			slot = (slot > 0 ? slot - 1 : tour.size() - 1);
+		} while (tour.get(slot) == null && --steps > 0);
+		return slot;
+	}
 	
 	/*
 	 * clear all three data structure
 	 */
 	public void clear() { 
 		tour.clear();
+		count = 0;
 		locator.clear();
 		spatial.clear();
+		modCount++;
+		endSavepoints(0);
+		if (listener != null)
+			listener.cleared();
 	}
 	
 	/*
 	 * calculate the cost from a place to another
 	 * */
 	public double cost() { 
-		int i = 0;
+		if (metric == DistanceMetric.PLANAR)
+			return costPacked();
 		double sum = 0.0;
-		if (tour.size() == 0)
+		LPoint first = null, prev = null;
+		for (LPoint pt : tour) {
+			if (pt == null)
+				continue;
+			if (prev == null)
+				first = pt;
+			else
+				sum += metric.distanceSq(prev.getPoint2D(), pt.getPoint2D());
+			prev = pt;
+		}
+		if (first == null)
 			return sum;
-		for (i = 1; i < tour.size(); i++) {
-			sum += tour.get(i-1).getPoint2D().distanceSq(tour.get(i).getPoint2D());
+		sum += metric.distanceSq(prev.getPoint2D(), first.getPoint2D());
+		return sum;
+	}
+	
+	/*
+	 * cost of a planar tour: the coordinates of COST_BLOCK + 1 consecutive
+	 * points at a time are packed into arrays and their edges measured by
+	 * DistanceKernels.edgeLengthsSq, then summed in the same order as cost
+	 * sums them, so the result is the same to the last bit.
+	 */
+	private double costPacked() {
+		if (count == 0)
+			return 0.0;
+		DistanceKernels kernels = DistanceKernels.get();
+		double[] x = new double[COST_BLOCK + 1], y = new double[COST_BLOCK + 1];
+		double[] length = new double[COST_BLOCK + 1]; // (the last one closes the block, unused)
+		double sum = 0.0;
+		LPoint first = null;
+		int m = 0; // points packed
+		for (LPoint pt : tour) {
+			if (pt == null)
+				continue;
+			if (first == null)
+				first = pt;
+			x[m] = pt.getX();
+			y[m] = pt.getY();
+			if (++m == COST_BLOCK + 1) {
+				kernels.edgeLengthsSq(x, y, m, length);
+				for (int k = 0; k < m - 1; k++)
+					sum += length[k];
+				x[0] = x[m - 1]; // (the next block starts at the last point)
+				y[0] = y[m - 1];
+				m = 1;
+			}
 		}
-		sum += tour.get(i-1).getPoint2D().distanceSq(tour.get(0).getPoint2D());
+		x[m] = first.getX(); // the closing edge
+		y[m] = first.getY();
+		m++;
+		kernels.edgeLengthsSq(x, y, m, length);
+		for (int k = 0; k < m - 1; k++)
+			sum += length[k];
 		return sum;
 	}
 	
+	private static final int COST_BLOCK = 256; // edges measured per kernel call
+	
 	/*
 	 * helper method for reverse method
 	 */
@@ -89,15 +573,32 @@ public class Tour<LPoint extends LabeledPoint2D> {
 			loc1 = loc2;
 			loc2 = temp;
 		}
+		if (!savepoints.isEmpty())
+			logReversal(loc1, loc2);
+		if (pass != null) {
+			pass.reversals++;
+			pass.reversedSlots += loc2 - loc1;
+			pass.longestReversal = Math.max(pass.longestReversal, loc2 - loc1);
+		}
+		swapRange(loc1, loc2);
+	}
+	
+	/*
+	 * reverses the slots loc1+1 .. loc2 (loc1 < loc2)
+	 */
+	private void swapRange(int loc1, int loc2) throws Exception {
 		int i = loc1 + 1; // indices of current items
 		int j = loc2;
-		while (i < j) { // swap tour[i] with tour[j]
+		modCount++;
+		while (i < j) { // swap tour[i] with tour[j] (either may be a gap)
 			LPoint pi = tour.get(i);
 			LPoint pj = tour.get(j);
 			tour.set(i, pj);
 			tour.set(j, pi);
-			locator.replace(pi.getLabel(), j); // update locators
-			locator.replace(pj.getLabel(), i);
+			if (pi != null) // update locators
+				relocate(pi.getLabel(), j);
+			if (pj != null)
+				relocate(pj.getLabel(), i);
 			i++;
 			j--;
 		}
@@ -107,12 +608,115 @@ public class Tour<LPoint extends LabeledPoint2D> {
 	 * reverse two location
 	 */
 	public void reverse(String label1, String label2) throws Exception { 
-		if (locator.find(label1) == null || locator.find(label2) == null)
+		Integer loc1 = locate(label1), loc2 = locate(label2);
+		if (loc1 == null || loc2 == null)
 			throw new Exception("Label not found");
-		if (locator.find(label1) == locator.find(label2)) {
+		if (loc1.equals(loc2)) {
 			throw new Exception("Duplicate label");
 		}
-		reverseSubtour(locator.find(label1), locator.find(label2));
+		reverseSubtour(loc1, loc2);
+		if (listener != null)
+			listener.reversed(label1, label2);
+	}
+	
+	/**
+	 * A state of the tour that it can be rolled back to (see savepoint).
+	 */
+	public class Savepoint {
+		private final int mark; // undo log entries made before it
+		
+		private Savepoint(int mark) {
+			this.mark = mark;
+		}
+	}
+	
+	/*
+	 * Opens a savepoint for a chain of speculative moves (annealing,
+	 * Lin-Kernighan, ...). Until it is rolled back or released, reverse (and
+	 * so every 2-Opt move) logs its slot range and cost change, so rollback
+	 * costs as much as the moves it undoes and no copy of the tour is made.
+	 * Savepoints nest: ending one also ends those opened after it. append,
+	 * insertions, remove and clear end all open savepoints and keep the
+	 * changes.
+	 */
+	public Savepoint savepoint() {
+		Savepoint sp = new Savepoint(undoSize);
+		savepoints.add(sp);
+		return sp;
+	}
+	
+	/*
+	 * Undoes every reversal made since the savepoint, newest first, and ends
+	 * the savepoint. The listener is told about the undoing reversals.
+	 */
+	public void rollback(Savepoint sp) throws Exception {
+		int depth = depthOf(sp);
+		while (undoSize > sp.mark) {
+			undoSize--;
+			int loc1 = undoRange[2 * undoSize], loc2 = undoRange[2 * undoSize + 1];
+			int last = loc2; // last point of the range (loc2 may now be a gap)
+			while (tour.get(last) == null)
+				last--;
+			String label1 = tour.get(loc1).getLabel(), label2 = tour.get(last).getLabel();
+			swapRange(loc1, loc2);
+			if (listener != null)
+				listener.reversed(label1, label2);
+		}
+		endSavepoints(depth);
+	}
+	
+	/*
+	 * Keeps the moves made since the savepoint and ends it.
+	 */
+	public void release(Savepoint sp) throws Exception {
+		endSavepoints(depthOf(sp));
+	}
+	
+	/*
+	 * The change of cost() made by the moves since the savepoint (negative if
+	 * the tour got shorter).
+	 */
+	public double costDelta(Savepoint sp) throws Exception {
+		depthOf(sp);
+		return undoCost[undoSize] - undoCost[sp.mark];
+	}
+	
+	private int depthOf(Savepoint sp) throws Exception {
+		int depth = savepoints.indexOf(sp);
+		if (depth < 0)
+			throw new Exception("Savepoint not open");
+		return depth;
+	}
+	
+	/*
+	 * ends the savepoints from the given depth on (the log is dropped once
+	 * none is left)
+	 */
+	private void endSavepoints(int depth) {
+		while (savepoints.size() > depth)
+			savepoints.remove(savepoints.size() - 1);
+		if (savepoints.isEmpty())
+			undoSize = 0;
+	}
+	
+	/*
+	 * logs the reversal of slots loc1+1 .. loc2 (both loc1 and loc2 hold
+	 * points): it replaces the edges (a, first) and (last, next) by (a, last)
+	 * and (first, next)
+	 */
+	private void logReversal(int loc1, int loc2) {
+		Point2D a = tour.get(loc1).getPoint2D(), first = tour.get(nextSlot(loc1)).getPoint2D();
+		Point2D last = tour.get(loc2).getPoint2D(), next = tour.get(nextSlot(loc2)).getPoint2D();
+		double delta = metric.distanceSq(a, last) + metric.distanceSq(first, next) - metric.distanceSq(a, first)
+				- metric.distanceSq(last, next);
+		if (2 * undoSize + 2 > undoRange.length) {
+			undoRange = Arrays.copyOf(undoRange, 2 * undoRange.length);
+			undoCost = Arrays.copyOf(undoCost, undoRange.length / 2 + 1);
+		}
+		undoRange[2 * undoSize] = loc1;
+		undoRange[2 * undoSize + 1] = loc2;
+		undoCost[undoSize + 1] = undoCost[undoSize] + delta;
+		undoSize++;
 	}
 	
 	/*
@@ -122,19 +726,28 @@ public class Tour<LPoint extends LabeledPoint2D> {
 	 */
 	public boolean twoOpt(String label1, String label2) throws Exception { 
 		double newDistance = 0.0, oldDistance = 0.0;
-		if (locator.find(label1) == null || locator.find(label2) == null)
+		Integer loc1 = locate(label1), loc2 = locate(label2);
+		if (loc1 == null || loc2 == null)
 			throw new Exception("Label not found");
-		int i = locator.find(label1), j = locator.find(label2);
-		newDistance = tour.get(i).getPoint2D().distanceSq(tour.get(j).getPoint2D());
-		newDistance += tour.get((i + 1) % tour.size()).getPoint2D().distanceSq(tour.get((j + 1) % tour.size()).getPoint2D());
-		oldDistance = tour.get(i).getPoint2D().distanceSq(tour.get((i + 1) % tour.size()).getPoint2D());
-		oldDistance += tour.get(j).getPoint2D().distanceSq(tour.get((j + 1) % tour.size()).getPoint2D());
+		int i = loc1, j = loc2;
+		int i1 = nextSlot(i), j1 = nextSlot(j);
+		newDistance = metric.distanceSq(tour.get(i).getPoint2D(), tour.get(j).getPoint2D());
+		newDistance += metric.distanceSq(tour.get(i1).getPoint2D(), tour.get(j1).getPoint2D());
+		oldDistance = metric.distanceSq(tour.get(i).getPoint2D(), tour.get(i1).getPoint2D());
+		oldDistance += metric.distanceSq(tour.get(j).getPoint2D(), tour.get(j1).getPoint2D());
 		if (newDistance - oldDistance < 0) {
 			reverse(label1, label2);
+			if (pass != null) {
+				pass.accepted++;
+				pass.costAfter += newDistance - oldDistance;
+			}
 			return true;
 		}
-		else
+		else {
+			if (pass != null)
+				pass.rejected++;
 			return false;
+		}
 	} 
 	
 	/*
@@ -146,17 +759,14 @@ public class Tour<LPoint extends LabeledPoint2D> {
 		int j = 0;
 		String label2 = "";
 		LPoint result = null;
-		if (locator.find(label) == null)
+		Integer loc = locate(label);
+		if (loc == null)
 			throw new Exception("Label not found");
-		for (int i = 0; i < tour.size(); i++) {
-			if (tour.get(i).getLabel().equals(label)) {
-				center = tour.get(i).getPoint2D();
-				j = i;
-			}
-		}
+		j = loc;
+		center = tour.get(j).getPoint2D();
 		if (center != null) {
-			double radius = center.distance(tour.get((j + 1) % tour.size()).getPoint2D());
-			result = spatial.fixedRadNN(center, radius);
+			double radius = Math.sqrt(metric.distanceSq(center, tour.get(nextSlot(j)).getPoint2D()));
+			result = nearestWithin(center, radius);
 			if (result == null)
 				return null;
 			label2 = result.getLabel();
@@ -176,13 +786,585 @@ public class Tour<LPoint extends LabeledPoint2D> {
 	// This performs the operation all-2-Opt() on the tour. 
 	public int allTwoOpt() throws Exception { 
 		int result = 0;
-		for (int i = 0; i < tour.size(); i++) {
-			for (int j = i + 1; j < tour.size(); j ++) {
-				if (twoOpt(tour.get(i).getLabel(), tour.get(j).getLabel()))
-					result += 1;
+		TourEvents.TwoOptPass event = beginPass("allTwoOpt");
+		pass = event;
+		try {
+			if (metric == DistanceMetric.PLANAR)
+				result = allTwoOptPacked();
+			else {
+				for (int i = 0; i < tour.size(); i++) {
+					if (tour.get(i) == null)
+						continue;
+					for (int j = i + 1; j < tour.size(); j ++) {
+						if (tour.get(j) != null && twoOpt(tour.get(i).getLabel(), tour.get(j).getLabel()))
+							result += 1;
+					}
+				}
+			}
+		} finally {
+			pass = null;
+		}
+		endPass(event);
+		return result;
+	}
+	
+	/*
+	 * allTwoOpt of a planar tour: the moves (i, j) are tested a block of j at
+	 * a time by DistanceKernels.twoOptDeltas, over the coordinates of every
+	 * slot and of its successor packed into arrays (NaN for gaps), and only
+	 * the moves found to improve go through twoOpt. The arrays are updated
+	 * after every move, so the same moves are made, in the same order, as by
+	 * calling twoOpt on every pair.
+	 */
+	private int allTwoOptPacked() throws Exception {
+		int n = tour.size(), result = 0;
+		if (count == 0)
+			return 0;
+		double[] x = new double[n], y = new double[n]; // slot s
+		double[] nx = new double[n], ny = new double[n]; // first point after slot s
+		double[] delta = new double[TWO_OPT_BLOCK];
+		for (int s = 0; s < n; s++) {
+			LPoint pt = tour.get(s);
+			x[s] = (pt == null ? Double.NaN : pt.getPoint2D().getX());
+			y[s] = (pt == null ? Double.NaN : pt.getPoint2D().getY());
+		}
+		int first = nextSlot(n - 1);
+		packSuccessors(x, y, nx, ny, 0, n - 1, x[first], y[first]);
+		DistanceKernels kernels = DistanceKernels.get();
+		for (int i = 0; i < n; i++) {
+			if (tour.get(i) == null)
+				continue;
+			int j = i + 1;
+			while (j < n) {
+				int to = Math.min(n, j + TWO_OPT_BLOCK);
+				kernels.twoOptDeltas(x, y, nx, ny, i, j, to, delta);
+				int k = j;
+				while (k < to && !(delta[k - j] < 0)) // (NaN for gaps)
+					k++;
+				if (pass != null) {
+					for (int s = j; s < k; s++) {
+						if (tour.get(s) != null)
+							pass.rejected++;
+					}
+				}
+				if (k == to) {
+					j = to;
+					continue;
+				}
+				if (twoOpt(tour.get(i).getLabel(), tour.get(k).getLabel())) {
+					result++;
+					for (int a = i + 1, b = k; a < b; a++, b--) { // as swapRange(i, k)
+						double t = x[a];
+						x[a] = x[b];
+						x[b] = t;
+						t = y[a];
+						y[a] = y[b];
+						y[b] = t;
+					}
+					packSuccessors(x, y, nx, ny, i, k, nx[k], ny[k]);
+				}
+				j = k + 1;
+			}
+		}
+		return result;
+	}
+	
+	private static final int TWO_OPT_BLOCK = 256; // moves tested per kernel call
+	
+	/*
+	 * sets (nx[s], ny[s]) for the slots lo .. hi to the coordinates of the
+	 * first point after s, where (nextX, nextY) is the first point after hi
+	 */
+	private void packSuccessors(double[] x, double[] y, double[] nx, double[] ny, int lo, int hi,
+			double nextX, double nextY) {
+		for (int s = hi; s >= lo; s--) {
+			nx[s] = nextX;
+			ny[s] = nextY;
+			if (tour.get(s) != null) {
+				nextX = x[s];
+				nextY = y[s];
+			}
+		}
+	}
+	
+	/*
+	 * Calls twoOptNN once on every point, in tour order as of the call, and
+	 * returns the number of moves made.
+	 */
+	public int twoOptNNPass() throws Exception {
+		int result = 0;
+		ArrayList<String> labels = new ArrayList<String>(count);
+		for (LPoint pt : tour) {
+			if (pt != null)
+				labels.add(pt.getLabel());
+		}
+		TourEvents.TwoOptPass event = beginPass("twoOptNN");
+		pass = event;
+		try {
+			for (String label : labels) {
+				if (twoOptNN(label) != null)
+					result++;
+			}
+		} finally {
+			pass = null;
+		}
+		endPass(event);
+		return result;
+	}
+	
+	/*
+	 * Best-improvement 2-Opt over candidate moves: for every point p and each
+	 * of its k nearest neighbors q, the moves twoOpt(p, q) and
+	 * twoOpt(prev p, prev q), which make q a neighbor of p in the tour.
+	 * Improving moves wait in an AAXTree keyed by gain, and the one with the
+	 * largest gain is made first. A move's gain is computed again when it
+	 * comes out of the tree: if an earlier reversal changed it, the move goes
+	 * back in with its new gain (if it still improves) instead of being made.
+	 * After a move, the moves of its four endpoints are queued. Once the tree
+	 * runs empty, every point is checked again, so the result is a local
+	 * optimum for these moves. Returns the number of moves made.
+	 */
+	public int bestTwoOpt(int k) throws Exception {
+		int result = 0;
+		ArrayList<String> labels = new ArrayList<String>(count);
+		HashMap<String, ArrayList<LPoint>> near = new HashMap<String, ArrayList<LPoint>>();
+		for (LPoint pt : tour) {
+			if (pt == null)
+				continue;
+			ArrayList<LPoint> nbs = spatial.nearest(pt.getPoint2D(), k + 1);
+			nbs.remove(pt);
+			labels.add(pt.getLabel());
+			near.put(pt.getLabel(), nbs);
+		}
+		AAXTree<GainMove, GainMove> queue = new AAXTree<GainMove, GainMove>();
+		TourEvents.TwoOptPass event = beginPass("bestTwoOpt");
+		pass = event;
+		try {
+			boolean moved = true;
+			while (moved) {
+				moved = false;
+				for (String label : labels)
+					queueMoves(queue, label, near.get(label));
+				GainMove m;
+				while ((m = queue.removeMax()) != null) {
+					int i = locate(m.label1), j = locate(m.label2);
+					double gain = twoOptGain(i, j);
+					if (gain != m.gain) { // stale
+						queueMove(queue, i, j);
+						continue;
+					}
+					String next1 = tour.get(nextSlot(i)).getLabel(), next2 = tour.get(nextSlot(j)).getLabel();
+					twoOpt(m.label1, m.label2);
+					result++;
+					moved = true;
+					for (String label : new String[] { m.label1, next1, m.label2, next2 })
+						queueMoves(queue, label, near.get(label));
+				}
+			}
+		} finally {
+			pass = null;
+		}
+		endPass(event);
+		return result;
+	}
+	
+	/*
+	 * a move of bestTwoOpt, ordered by gain (then by labels, as keys must be
+	 * unique)
+	 */
+	private static class GainMove implements Comparable<GainMove> {
+		private final String label1, label2;
+		private final double gain;
+		
+		private GainMove(String label1, String label2, double gain) {
+			this.label1 = label1;
+			this.label2 = label2;
+			this.gain = gain;
+		}
+		
+		public int compareTo(GainMove m) {
+			int c = Double.compare(gain, m.gain);
+			if (c == 0)
+				c = label1.compareTo(m.label1);
+			if (c == 0)
+				c = label2.compareTo(m.label2);
+			return c;
+		}
+	}
+	
+	/*
+	 * queues the improving candidate moves of a point (see bestTwoOpt)
+	 */
+	private void queueMoves(AAXTree<GainMove, GainMove> queue, String label, ArrayList<LPoint> near)
+			throws Exception {
+		int p = locate(label), pp = prevSlot(p);
+		for (LPoint nb : near) {
+			int q = locate(nb.getLabel());
+			queueMove(queue, p, q);
+			queueMove(queue, pp, prevSlot(q));
+		}
+	}
+	
+	/*
+	 * queues twoOpt of the points at slots i and j if it improves the tour
+	 * (and is not queued with the same gain already)
+	 */
+	private void queueMove(AAXTree<GainMove, GainMove> queue, int i, int j) throws Exception {
+		if (i == j)
+			return;
+		double gain = twoOptGain(i, j);
+		if (gain > 0) {
+			GainMove m = new GainMove(tour.get(i).getLabel(), tour.get(j).getLabel(), gain);
+			if (queue.find(m) == null)
+				queue.insert(m, m);
+		}
+		else if (pass != null)
+			pass.rejected++;
+	}
+	
+	/*
+	 * decrease of cost() by twoOpt of the points at slots i and j (the same
+	 * sums twoOpt compares, so twoOpt makes the move iff this is positive)
+	 */
+	private double twoOptGain(int i, int j) {
+		int i1 = nextSlot(i), j1 = nextSlot(j);
+		Point2D pi = tour.get(i).getPoint2D(), pj = tour.get(j).getPoint2D();
+		Point2D pi1 = tour.get(i1).getPoint2D(), pj1 = tour.get(j1).getPoint2D();
+		double newDistance = metric.distanceSq(pi, pj) + metric.distanceSq(pi1, pj1);
+		double oldDistance = metric.distanceSq(pi, pi1) + metric.distanceSq(pj, pj1);
+		return oldDistance - newDistance;
+	}
+	
+	/*
+	 * Exact re-optimization of windows of k consecutive points: the points of
+	 * each window are put in their best order between the fixed points just
+	 * before and after it (see HeldKarp), which finds improvements that need
+	 * many of them moved at once. A sweep covers the tour with windows that
+	 * start every k + 1 points from an offset, so they share at most their
+	 * fixed points and are solved in parallel. The new orders are then made
+	 * one window at a time, as reversals (at most k per window), so
+	 * listeners and savepoints see them like any other reversal. Sweeps
+	 * shift the offset by one until k + 1 sweeps in a row (every offset)
+	 * improve nothing; windows do not wrap around the end of the tour.
+	 * Returns the number of windows improved. Windows of up to
+	 * HeldKarp.MAX_INNER points are supported (the work per window grows
+	 * like 2^k k^2, so k is best kept around 8 .. 12). Every worker thread
+	 * keeps its solver between calls (see HeldKarp.forThread).
+	 */
+	public int windowOpt(int k) throws Exception {
+		if (k < 2 || k > HeldKarp.MAX_INNER)
+			throw new Exception("Window size must be 2 .. " + HeldKarp.MAX_INNER);
+		if (count < k + 2)
+			return 0;
+		int w = k + 2, maxWindows = (count - 1) / (k + 1);
+		int[] slots = new int[count]; // slot of every point, in tour order
+		double[] d = new double[maxWindows * w * w]; // distances of every window (see HeldKarp.solve)
+		int[] order = new int[maxWindows * k];
+		int[] current = new int[k + 1];
+		double[] gain = new double[maxWindows];
+		int result = 0;
+		for (int offset = 0, quiet = 0; quiet <= k; offset = (offset + 1) % (k + 1)) {
+			int n = 0;
+			for (int slot = 0; slot < tour.size(); slot++) {
+				if (tour.get(slot) != null)
+					slots[n++] = slot;
+			}
+			int windows = (n - 1 - offset) / (k + 1); // window t: positions offset + t (k + 1) .. + k + 1
+			for (int t = 0; t < windows; t++) { // (the metric is only used by this thread)
+				int first = offset + t * (k + 1);
+				for (int a = 0; a < w; a++) {
+					Point2D pa = tour.get(slots[first + a]).getPoint2D();
+					for (int b = 0; b < w; b++)
+						d[t * w * w + a * w + b] = (a == b ? 0 : metric.distanceSq(pa, tour.get(slots[first + b]).getPoint2D()));
+				}
+			}
+			IntStream.range(0, windows).parallel().forEach(t -> {
+				gain[t] = HeldKarp.forThread(k).solve(d, t * w * w, k, order, t * k);
+			});
+			int improved = 0;
+			for (int t = 0; t < windows; t++) {
+				if (gain[t] > 0) {
+					applyOrder(slots, offset + t * (k + 1), k, order, t * k, current);
+					improved++;
+				}
 			}
+			result += improved;
+			quiet = (improved > 0 ? 0 : quiet + 1);
 		}
 		return result;
 	}
+	
+	/*
+	 * puts the k points after position first (slots[first + 1 .. first + k])
+	 * in the given order (the point at position first + order[at + p] goes
+	 * to position first + 1 + p), by reversals; current (k + 1 entries) is
+	 * scratch space
+	 */
+	private void applyOrder(int[] slots, int first, int k, int[] order, int at, int[] current) throws Exception {
+		for (int p = 1; p <= k; p++)
+			current[p] = p; // current[p]: the point at position first + p, as numbered by order
+		for (int p = 1; p <= k; p++) {
+			int q = p;
+			while (current[q] != order[at + p - 1])
+				q++;
+			if (q == p)
+				continue;
+			// reverse positions p .. q: the slots after that of position p - 1
+			// up to that of position q, which mirrors the slots in between
+			int lo = slots[first + p - 1], hi = slots[first + q];
+			reverse(tour.get(lo).getLabel(), tour.get(hi).getLabel());
+			for (int i = p, j = q; i <= j; i++, j--) {
+				int t = current[i];
+				current[i] = current[j];
+				current[j] = t;
+				int slot = slots[first + i];
+				slots[first + i] = lo + 1 + hi - slots[first + j];
+				slots[first + j] = lo + 1 + hi - slot;
+			}
+		}
+	}
+	
+	/*
+	 * Starts recording a 2-Opt pass, or returns null if the event is disabled
+	 * (see TourEvents). This is the only cost() of a pass: twoOpt adds the
+	 * change of every accepted move to costAfter.
+	 */
+	private TourEvents.TwoOptPass beginPass(String optimizer) {
+		TourEvents.TwoOptPass event = new TourEvents.TwoOptPass();
+		if (!event.isEnabled())
+			return null;
+		event.optimizer = optimizer;
+		event.size = count;
+		event.costBefore = cost();
+		event.costAfter = event.costBefore;
+		event.begin();
+		return event;
+	}
+	
+	private void endPass(TourEvents.TwoOptPass event) {
+		if (event == null)
+			return;
+		event.end();
+		if (event.shouldCommit())
+			event.commit();
+	}
+	
+	/*
+	 * true if the next index call is to be timed: only during a recorded
+	 * pass, after a random gap of 1 .. 2 * SAMPLE_PERIOD - 1 calls
+	 */
+	private boolean sample() {
+		if (pass == null || --untilSample > 0)
+			return false;
+		sampleSeed ^= sampleSeed << 13;
+		sampleSeed ^= sampleSeed >>> 17;
+		sampleSeed ^= sampleSeed << 5;
+		untilSample = 1 + Math.floorMod(sampleSeed, 2 * SAMPLE_PERIOD - 1);
+		return true;
+	}
+	
+	/*
+	 * estimated time of all calls of a kind from one timed call (see sample)
+	 * started at the given System.nanoTime()
+	 */
+	private static long sampled(long start) {
+		return Math.max(0, System.nanoTime() - start - TourEvents.TIMER_COST) * SAMPLE_PERIOD;
+	}
+	
+	/*
+	 * locator.find, timed now and then during a recorded pass
+	 */
+	private Integer locate(String label) {
+		if (!sample())
+			return locator.find(label);
+		long t = System.nanoTime();
+		Integer loc = locator.find(label);
+		pass.locatorTime += sampled(t);
+		return loc;
+	}
+	
+	/*
+	 * locator.replace, timed now and then during a recorded pass
+	 */
+	private void relocate(String label, int slot) throws Exception {
+		if (!sample()) {
+			locator.replace(label, slot);
+			return;
+		}
+		long t = System.nanoTime();
+		locator.replace(label, slot);
+		pass.locatorTime += sampled(t);
+	}
+	
+	/*
+	 * spatial.fixedRadNN, timed now and then during a recorded pass
+	 */
+	private LPoint nearestWithin(Point2D center, double radius) {
+		if (!sample())
+			return spatial.fixedRadNN(center, radius);
+		long t = System.nanoTime();
+		LPoint result = spatial.fixedRadNN(center, radius);
+		pass.spatialTime += sampled(t);
+		return result;
+	}
+
+	/*
+	 * Returns a cursor that performs the all-2-Opt sweep incrementally, so that
+	 * the work can be spread over several short time slices.
+	 */
+	public TwoOptCursor twoOptCursor() {
+		return new TwoOptCursor();
+	}
+	
+	/*
+	 * Slot of the first point (0 if the tour is empty)
+	 */
+	private int firstSlot() {
+		for (int k = 0; k < tour.size(); k++) {
+			if (tour.get(k) != null)
+				return k;
+		}
+		return 0;
+	}
+
+	/**
+	 * Resumable all-2-Opt sweep. The cursor visits the same (i, j) pairs as
+	 * allTwoOpt(), in the same order, but stops whenever its budget runs out and
+	 * continues from there on the next call. If the tour was modified by anyone
+	 * else in between (append, reverse, clear, ...), the cursor re-locates its
+	 * current i by label and restarts the inner loop; such a pass is not
+	 * considered clean.
+	 */
+	public class TwoOptCursor {
+		private int i, j; // next pair to be tested
+		private String anchor; // label at position i (used for re-validation)
+		private int expectedMod; // modCount seen at the end of the last step
+		private boolean improved; // did the current pass change the tour?
+		private boolean optimal; // last full pass found no improvement
+		private int passes; // number of completed passes
+		private TourEvents.TwoOptPass event; // the current pass (null if not recorded)
+		private boolean unrecorded; // the current pass is not to be recorded (from where the tour was changed)
+
+		TwoOptCursor() {
+			i = firstSlot();
+			j = i + 1;
+			anchor = (count == 0 ? null : tour.get(i).getLabel());
+			expectedMod = modCount;
+			improved = false;
+			optimal = false;
+			passes = 0;
+		}
+
+		/**
+		 * Test at most maxMoves pairs (i, j), applying every improving 2-Opt.
+		 *
+		 * @param maxMoves The number of pairs to test
+		 * @return The number of improving moves applied
+		 */
+		public int step(int maxMoves) throws Exception {
+			return run(maxMoves, Long.MAX_VALUE);
+		}
+
+		/**
+		 * Test pairs until roughly the given number of nanoseconds has elapsed.
+		 *
+		 * @param nanos The time budget
+		 * @return The number of improving moves applied
+		 */
+		public int stepNanos(long nanos) throws Exception {
+			return run(Integer.MAX_VALUE, System.nanoTime() + nanos);
+		}
+
+		/**
+		 * True if the last completed pass applied no move and the tour has not
+		 * been modified since.
+		 */
+		public boolean isLocalOptimum() {
+			return optimal && expectedMod == modCount;
+		}
+
+		public int getPasses() { return passes; }
+
+		/*
+		 * true if the tour was changed since the last step
+		 */
+		private boolean revalidate() {
+			if (expectedMod == modCount)
+				return false;
+			Integer loc = (anchor == null ? null : locator.find(anchor));
+			if (loc != null)
+				i = loc;
+			else
+				i = firstSlot();
+			j = i + 1;
+			anchor = (count == 0 ? null : tour.get(i).getLabel());
+			improved = true; // the tour changed under us, so this pass is not clean
+			optimal = false;
+			expectedMod = modCount;
+			return true;
+		}
+
+		private int run(int maxMoves, long deadline) throws Exception {
+			if (revalidate()) {
+				// the recorded costs only follow this cursor's moves, so the
+				// pass is recorded up to here and the rest of it is not
+				endPass(event);
+				event = null;
+				unrecorded = true;
+			}
+			if (event == null && !optimal && !unrecorded)
+				event = beginPass("TwoOptCursor");
+			pass = event;
+			try {
+				return sweep(maxMoves, deadline);
+			} finally {
+				pass = null;
+			}
+		}
+
+		private int sweep(int maxMoves, long deadline) throws Exception {
+			int result = 0;
+			for (int moves = 0; moves < maxMoves; moves++) {
+				if ((moves & 63) == 63 && System.nanoTime() >= deadline)
+					break;
+				if (count < 2) {
+					optimal = true;
+					break;
+				}
+				if (j >= tour.size()) { // advance the outer loop
+					i = nextSlot(i);
+					if (i == firstSlot()) { // end of pass
+						passes++;
+						optimal = !improved;
+						improved = false;
+						unrecorded = false;
+						pass = null;
+						endPass(event);
+						event = (optimal ? null : beginPass("TwoOptCursor"));
+						pass = event;
+						if (optimal) {
+							j = i + 1;
+							anchor = tour.get(i).getLabel();
+							break;
+						}
+					}
+					j = i + 1;
+					anchor = tour.get(i).getLabel();
+					continue;
+				}
+				if (tour.get(j) == null) {
+					j++;
+					continue;
+				}
+				if (twoOpt(anchor, tour.get(j).getLabel())) {
+					result++;
+					improved = true;
+				}
+				j++;
+			}
+			expectedMod = modCount;
+			return result;
+		}
+	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,472 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import benchmarks.Cases;
+
+/**
+ * The cases of the microbenchmarks of the hot paths of Tour, AAXTree and
+ * WKDTree, which are run by JMH (the classes of package benchmarks, see
+ * benchmarks.CaseBenchmark):
+ *
+ *   mvn package
+ *   java -jar target/benchmarks.jar [options] [regex]
+ *
+ * (benchmarks.Main adds -prof gc unless other profilers are given).
+ *
+ * A case prepares a batch of operations on an instance (see Instances),
+ * which JMH then measures. Whole-tour optimizers (allTwoOpt, bestTwoOpt,
+ * windowOpt) refuse instances of more than MAX_QUADRATIC points.
+ */
+public class TourBenchmarks implements Cases {
+
+	private static final int MAX_QUADRATIC = 20000;
+	private static final int QUERIES = 100000; // most operations per batch
+
+	public static volatile long sink; // keeps results alive
+
+	/**
+	 * Prepares one batch (not measured) and returns it.
+	 */
+	interface Case {
+		Batch prepare(ArrayList<Airport> pts, Random r) throws Exception;
+	}
+
+	private static final LinkedHashMap<String, Case> CASES = new LinkedHashMap<String, Case>();
+
+	/**
+	 * Workers of the concurrent cases, kept across batches (so that
+	 * allocation profilers, which count live threads, see their allocation).
+	 */
+	private static final ExecutorService WORKERS = Executors.newCachedThreadPool(task -> {
+		Thread worker = new Thread(task, "benchmark-worker");
+		worker.setDaemon(true);
+		return worker;
+	});
+
+	static {
+		// ---- Tour ----
+		CASES.put("tour.append", (pts, r) -> {
+			Tour<Airport> tour = new Tour<Airport>();
+			return () -> {
+				for (Airport pt : pts)
+					tour.append(pt);
+				return pts.size();
+			};
+		});
+		CASES.put("tour.appendAll", (pts, r) -> {
+			Tour<Airport> tour = new Tour<Airport>();
+			return () -> {
+				tour.appendAll(pts);
+				return pts.size();
+			};
+		});
+		CASES.put("tour.cost", (pts, r) -> {
+			Tour<Airport> tour = tour(pts);
+			int reps = Math.max(1, 1000000 / pts.size());
+			return () -> {
+				double sum = 0;
+				for (int k = 0; k < reps; k++)
+					sum += tour.cost();
+				sink += (long) sum;
+				return reps;
+			};
+		});
+		CASES.put("tour.reverse", (pts, r) -> {
+			Tour<Airport> tour = tour(pts);
+			String[][] pairs = pairs(pts, r, linearOps(pts.size()));
+			return () -> {
+				for (String[] p : pairs)
+					tour.reverse(p[0], p[1]);
+				return pairs.length;
+			};
+		});
+		CASES.put("tour.twoOpt", (pts, r) -> {
+			Tour<Airport> tour = tour(pts);
+			String[][] pairs = pairs(pts, r, linearOps(pts.size()));
+			return () -> {
+				int moves = 0;
+				for (String[] p : pairs)
+					moves += (tour.twoOpt(p[0], p[1]) ? 1 : 0);
+				sink += moves;
+				return pairs.length;
+			};
+		});
+		CASES.put("tour.twoOptNN", (pts, r) -> {
+			Tour<Airport> tour = tour(pts);
+			String[] labels = labels(pts, r, linearOps(pts.size()));
+			return () -> {
+				for (String label : labels)
+					sink += (tour.twoOptNN(label) == null ? 0 : 1);
+				return labels.length;
+			};
+		});
+		CASES.put("tour.allTwoOpt", (pts, r) -> {
+			if (pts.size() > MAX_QUADRATIC)
+				throw new Exception("Too many points for a whole-tour optimizer");
+			Tour<Airport> tour = tour(pts);
+			return () -> {
+				sink += tour.allTwoOpt();
+				return 1;
+			};
+		});
+		CASES.put("tour.bestTwoOpt", (pts, r) -> {
+			if (pts.size() > MAX_QUADRATIC)
+				throw new Exception("Too many points for a whole-tour optimizer");
+			Tour<Airport> tour = tour(pts);
+			return () -> {
+				sink += tour.bestTwoOpt(8);
+				return 1;
+			};
+		});
+		CASES.put("tour.windowOpt", (pts, r) -> {
+			if (pts.size() > MAX_QUADRATIC)
+				throw new Exception("Too many points for a whole-tour optimizer");
+			Tour<Airport> tour = tour(pts);
+			return () -> {
+				sink += tour.windowOpt(8);
+				return 1;
+			};
+		});
+		// ---- AAXTree (the locator) ----
+		CASES.put("locator.find", (pts, r) -> {
+			AAXTree<String, Integer> tree = locator(pts);
+			String[] keys = labels(pts, r, QUERIES);
+			return () -> {
+				for (String key : keys)
+					sink += tree.find(key);
+				return keys.length;
+			};
+		});
+		CASES.put("locator.insert", (pts, r) -> {
+			AAXTree<String, Integer> tree = new AAXTree<String, Integer>();
+			String[] keys = labels(pts, r, -1);
+			return () -> {
+				for (int k = 0; k < keys.length; k++)
+					tree.insert(keys[k], k);
+				return keys.length;
+			};
+		});
+		CASES.put("locator.delete", (pts, r) -> {
+			AAXTree<String, Integer> tree = locator(pts);
+			String[] keys = labels(pts, r, -1);
+			return () -> {
+				for (String key : keys)
+					tree.delete(key);
+				return keys.length;
+			};
+		});
+		CASES.put("locator.findSmaller", (pts, r) -> {
+			AAXTree<String, Integer> tree = locator(pts);
+			String[] keys = labels(pts, r, QUERIES);
+			return () -> {
+				for (String key : keys) {
+					Integer v = tree.findSmaller(key);
+					sink += (v == null ? 0 : v);
+				}
+				return keys.length;
+			};
+		});
+		// ---- WKDTree (the spatial index) ----
+		CASES.put("spatial.find", (pts, r) -> {
+			WKDTree<Airport> tree = spatial(pts);
+			Airport[] queries = points(pts, r, QUERIES);
+			return () -> {
+				for (Airport q : queries)
+					sink += (tree.find(q.getPoint2D()) == null ? 0 : 1);
+				return queries.length;
+			};
+		});
+		CASES.put("spatial.insert", (pts, r) -> {
+			WKDTree<Airport> tree = new WKDTree<Airport>();
+			Airport[] order = points(pts, r, -1);
+			return () -> {
+				for (Airport pt : order)
+					tree.insert(pt);
+				return order.length;
+			};
+		});
+		CASES.put("spatial.delete", (pts, r) -> {
+			WKDTree<Airport> tree = spatial(pts);
+			Airport[] order = points(pts, r, -1);
+			return () -> {
+				for (Airport pt : order)
+					tree.delete(pt.getPoint2D());
+				return order.length;
+			};
+		});
+		CASES.put("spatial.circularRange", (pts, r) -> {
+			WKDTree<Airport> tree = spatial(pts);
+			Airport[] queries = points(pts, r, QUERIES);
+			float sqRadius = (float) sqRadius(pts, 10);
+			return () -> {
+				for (Airport q : queries)
+					sink += tree.circularRange(q.getPoint2D(), sqRadius).size();
+				return queries.length;
+			};
+		});
+		CASES.put("spatial.fixedRadNN", (pts, r) -> {
+			WKDTree<Airport> tree = spatial(pts);
+			Airport[] queries = points(pts, r, QUERIES);
+			double radius = Math.sqrt(sqRadius(pts, 10)); // (fixedRadNN squares its argument)
+			return () -> {
+				for (Airport q : queries)
+					sink += (tree.fixedRadNN(q.getPoint2D(), radius) == null ? 0 : 1);
+				return queries.length;
+			};
+		});
+		CASES.put("spatial.nearest", (pts, r) -> {
+			WKDTree<Airport> tree = spatial(pts);
+			Airport[] queries = points(pts, r, QUERIES / 10);
+			return () -> {
+				for (Airport q : queries)
+					sink += tree.nearest(q.getPoint2D(), 10).size();
+				return queries.length;
+			};
+		});
+		// ---- StaticWKDTree (the frozen spatial index), same queries ----
+		CASES.put("spatial.frozenFind", (pts, r) -> {
+			StaticWKDTree<Airport> tree = spatial(pts).freeze();
+			Airport[] queries = points(pts, r, QUERIES);
+			return () -> {
+				for (Airport q : queries)
+					sink += (tree.find(q.getPoint2D()) == null ? 0 : 1);
+				return queries.length;
+			};
+		});
+		CASES.put("spatial.frozenCircularRange", (pts, r) -> {
+			StaticWKDTree<Airport> tree = spatial(pts).freeze();
+			Airport[] queries = points(pts, r, QUERIES);
+			float sqRadius = (float) sqRadius(pts, 10);
+			return () -> {
+				for (Airport q : queries)
+					sink += tree.circularRange(q.getPoint2D(), sqRadius).size();
+				return queries.length;
+			};
+		});
+		CASES.put("spatial.frozenFixedRadNN", (pts, r) -> {
+			StaticWKDTree<Airport> tree = spatial(pts).freeze();
+			Airport[] queries = points(pts, r, QUERIES);
+			double radius = Math.sqrt(sqRadius(pts, 10));
+			return () -> {
+				for (Airport q : queries)
+					sink += (tree.fixedRadNN(q.getPoint2D(), radius) == null ? 0 : 1);
+				return queries.length;
+			};
+		});
+		CASES.put("spatial.frozenNearest", (pts, r) -> {
+			StaticWKDTree<Airport> tree = spatial(pts).freeze();
+			Airport[] queries = points(pts, r, QUERIES / 10);
+			return () -> {
+				for (Airport q : queries)
+					sink += tree.nearest(q.getPoint2D(), 10).size();
+				return queries.length;
+			};
+		});
+		// ---- DistanceKernels: scalar, and vectorized if available ----
+		for (String variant : new String[] { "scalar", "vector" }) {
+			CASES.put("kernels.distancesSq/" + variant, (pts, r) -> {
+				DistanceKernels kernels = kernels(variant);
+				double[][] xy = coordinates(pts);
+				int n = pts.size();
+				double[] out = new double[n];
+				Airport[] queries = points(pts, r, Math.max(1, 10000000 / n));
+				return () -> {
+					for (Airport q : queries) {
+						kernels.distancesSq(q.getX(), q.getY(), xy[0], xy[1], 0, n, out);
+						sink += (long) out[n - 1];
+					}
+					return queries.length * n;
+				};
+			});
+			CASES.put("kernels.edgeLengthsSq/" + variant, (pts, r) -> {
+				DistanceKernels kernels = kernels(variant);
+				double[][] xy = coordinates(pts);
+				int n = pts.size(), reps = Math.max(1, 10000000 / n);
+				double[] out = new double[n];
+				return () -> {
+					for (int k = 0; k < reps; k++) {
+						kernels.edgeLengthsSq(xy[0], xy[1], n, out);
+						sink += (long) out[k % n];
+					}
+					return reps * n;
+				};
+			});
+			CASES.put("kernels.twoOptDeltas/" + variant, (pts, r) -> {
+				DistanceKernels kernels = kernels(variant);
+				double[][] xy = coordinates(pts);
+				int n = pts.size();
+				double[] nx = new double[n], ny = new double[n], out = new double[n];
+				for (int k = 0; k < n; k++) {
+					nx[k] = xy[0][(k + 1) % n];
+					ny[k] = xy[1][(k + 1) % n];
+				}
+				int[] from = new int[Math.max(1, 10000000 / n)];
+				for (int k = 0; k < from.length; k++)
+					from[k] = r.nextInt(n);
+				return () -> {
+					for (int i : from) {
+						kernels.twoOptDeltas(xy[0], xy[1], nx, ny, i, 0, n, out);
+						sink += (long) out[i];
+					}
+					return from.length * n;
+				};
+			});
+		}
+		// ---- ConcurrentWKDTree: inserts from 1, 2, 4, 8 threads (the
+		// thread counts of ConcurrentSpatialBenchmark) ----
+		for (int threads = 1; threads <= 8; threads *= 2) {
+			int t = threads;
+			CASES.put("concurrentSpatial.insert/" + t, (pts, r) -> {
+				ConcurrentWKDTree<Airport> tree = new ConcurrentWKDTree<Airport>();
+				Airport[] order = points(pts, r, -1);
+				return () -> {
+					ArrayList<Future<Void>> parts = new ArrayList<Future<Void>>(t);
+					for (int k = 0; k < t; k++) {
+						int first = k;
+						parts.add(WORKERS.submit(() -> {
+							for (int i = first; i < order.length; i += t)
+								tree.insert(order[i]);
+							return null;
+						}));
+					}
+					for (Future<Void> part : parts)
+						part.get(); // (throws what a worker threw)
+					return order.length;
+				};
+			});
+		}
+	}
+
+	private String loaded; // the instance of the last batch (data and n)
+	private ArrayList<Airport> pts;
+
+	public Batch prepare(String name, String data, int n, Random r) throws Exception {
+		Case c = CASES.get(name);
+		if (c == null)
+			throw new Exception("Unknown benchmark case: " + name);
+		if (!(data + " " + n).equals(loaded)) {
+			pts = Instances.generate(data, n, 42);
+			loaded = data + " " + n;
+		}
+		return c.prepare(pts, r);
+	}
+
+	// -----------------------------------------------------------------
+	// Helpers for preparing batches
+	// -----------------------------------------------------------------
+
+	/**
+	 * The kernels of a variant: "scalar", or "vector" if available.
+	 */
+	private static DistanceKernels kernels(String variant) throws Exception {
+		if (variant.equals("scalar"))
+			return DistanceKernels.SCALAR;
+		if (DistanceKernels.get() == DistanceKernels.SCALAR)
+			throw new Exception("No vector kernels (run with --add-modules jdk.incubator.vector)");
+		return DistanceKernels.get();
+	}
+
+	private static Tour<Airport> tour(ArrayList<Airport> pts) throws Exception {
+		Tour<Airport> tour = new Tour<Airport>();
+		tour.appendAll(pts);
+		return tour;
+	}
+
+	private static AAXTree<String, Integer> locator(ArrayList<Airport> pts) throws Exception {
+		int n = pts.size();
+		ArrayList<String> keys = new ArrayList<String>(n);
+		for (int k = 0; k < n; k++)
+			keys.add(pts.get(k).getLabel());
+		Collections.sort(keys);
+		ArrayList<Integer> values = new ArrayList<Integer>(n);
+		for (int k = 0; k < n; k++)
+			values.add(k);
+		AAXTree<String, Integer> tree = new AAXTree<String, Integer>();
+		tree.build(keys, values);
+		return tree;
+	}
+
+	private static WKDTree<Airport> spatial(ArrayList<Airport> pts) throws Exception {
+		WKDTree<Airport> tree = new WKDTree<Airport>();
+		tree.build(pts);
+		return tree;
+	}
+
+	/**
+	 * The x and y coordinates of the points, packed (as for DistanceKernels).
+	 */
+	private static double[][] coordinates(ArrayList<Airport> pts) {
+		double[][] xy = new double[2][pts.size()];
+		for (int k = 0; k < pts.size(); k++) {
+			xy[0][k] = pts.get(k).getX();
+			xy[1][k] = pts.get(k).getY();
+		}
+		return xy;
+	}
+
+	/**
+	 * Operations per batch for linear-time operations (reverse, ...).
+	 */
+	private static int linearOps(int n) {
+		return Math.max(10, Math.min(1000, 10000000 / n));
+	}
+
+	/**
+	 * count random points, or all points in random order if count < 0.
+	 */
+	private static Airport[] points(ArrayList<Airport> pts, Random r, int count) {
+		Airport[] result;
+		if (count < 0) {
+			result = pts.toArray(new Airport[0]);
+			for (int k = result.length - 1; k > 0; k--) {
+				int j = r.nextInt(k + 1);
+				Airport t = result[k];
+				result[k] = result[j];
+				result[j] = t;
+			}
+		} else {
+			result = new Airport[count];
+			for (int k = 0; k < count; k++)
+				result[k] = pts.get(r.nextInt(pts.size()));
+		}
+		return result;
+	}
+
+	private static String[] labels(ArrayList<Airport> pts, Random r, int count) {
+		Airport[] chosen = points(pts, r, count);
+		String[] result = new String[chosen.length];
+		for (int k = 0; k < chosen.length; k++)
+			result[k] = chosen[k].getLabel();
+		return result;
+	}
+
+	private static String[][] pairs(ArrayList<Airport> pts, Random r, int count) {
+		String[][] result = new String[count][];
+		for (int k = 0; k < count; k++) {
+			int i = r.nextInt(pts.size()), j = r.nextInt(pts.size() - 1);
+			if (j >= i)
+				j++;
+			result[k] = new String[] { pts.get(i).getLabel(), pts.get(j).getLabel() };
+		}
+		return result;
+	}
+
+	/**
+	 * Squared radius of a disk expected to hold about m points.
+	 */
+	private static double sqRadius(ArrayList<Airport> pts, int m) {
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (Airport pt : pts) {
+			minX = Math.min(minX, pt.getX());
+			maxX = Math.max(maxX, pt.getX());
+			minY = Math.min(minY, pt.getY());
+			maxY = Math.max(maxY, pt.getY());
+		}
+		return (maxX - minX) * (maxY - minY) * m / (Math.PI * pts.size());
+	}
+}
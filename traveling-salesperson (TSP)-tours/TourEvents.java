@@ -0,0 +1,112 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of Tour (category "TSP"), e.g. recorded with
+ * java -XX:StartFlightRecording=filename=tour.jfr ... and shown with
+ * jfr print --events tsp.TwoOptPass tour.jfr.
+ *
+ *   - TwoOptPass: one pass of allTwoOpt, twoOptNNPass, bestTwoOpt or a
+ *     TwoOptCursor, from its start to its end (for a cursor, over all the
+ *     slices the pass took, up to any change other operations made to the
+ *     tour in between), with the cost before and after, the moves
+ *     applied and rejected, the reversals made and the time spent in the
+ *     locator and in the spatial index
+ *   - IndexRebuild: the rebuild of both indices by a bulk appendAll, with
+ *     the time of each
+ *
+ * Events are per pass or per bulk load, never per move, so they can stay
+ * enabled: a pass adds one cost() computation, at its start, and a few
+ * counter updates per move (the cost after is the cost before plus the
+ * change of every accepted move, up to rounding). Nothing is computed
+ * while the event is disabled. Index times within a pass are sampled (see
+ * Tour.SAMPLE_PERIOD).
+ */
+public class TourEvents {
+
+	/**
+	 * Time taken by a pair of System.nanoTime() calls (the least of a few
+	 * thousand tries), subtracted from every timing.
+	 */
+	static final long TIMER_COST = timerCost();
+
+	private static long timerCost() {
+		long least = Long.MAX_VALUE;
+		for (int k = 0; k < 10000; k++) {
+			long t = System.nanoTime();
+			least = Math.min(least, System.nanoTime() - t);
+		}
+		return least;
+	}
+
+	@Name("tsp.TwoOptPass")
+	@Label("2-Opt Pass")
+	@Category("TSP")
+	@Description("One pass of a 2-Opt optimizer over a tour")
+	public static class TwoOptPass extends Event {
+		@Label("Optimizer")
+		String optimizer;
+
+		@Label("Tour Size")
+		int size;
+
+		@Label("Cost Before")
+		double costBefore;
+
+		@Label("Cost After")
+		@Description("Cost before plus the change of every accepted move")
+		double costAfter;
+
+		@Label("Accepted Moves")
+		@Description("2-Opt moves tested that shortened the tour (and were applied)")
+		long accepted;
+
+		@Label("Rejected Moves")
+		@Description("2-Opt moves tested that did not shorten the tour")
+		long rejected;
+
+		@Label("Reversals")
+		long reversals;
+
+		@Label("Reversed Slots")
+		@Description("Total length of the reversed slot ranges (gaps included)")
+		long reversedSlots;
+
+		@Label("Longest Reversal")
+		int longestReversal;
+
+		@Label("Locator Time")
+		@Description("Estimated time in locator lookups and updates")
+		@Timespan(Timespan.NANOSECONDS)
+		long locatorTime;
+
+		@Label("Spatial Index Time")
+		@Description("Estimated time in spatial index queries")
+		@Timespan(Timespan.NANOSECONDS)
+		long spatialTime;
+	}
+
+	@Name("tsp.IndexRebuild")
+	@Label("Index Rebuild")
+	@Category("TSP")
+	@Description("Rebuild of the locator and the spatial index by appendAll")
+	public static class IndexRebuild extends Event {
+		@Label("Tour Size")
+		int size;
+
+		@Label("Appended Points")
+		int appended;
+
+		@Label("Locator Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long locatorTime;
+
+		@Label("Spatial Index Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long spatialTime;
+	}
+}
@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Concurrent ingestion of points into a tour.
+ *
+ * Any number of producer threads call add. The duplicate checks do not go
+ * through the tour: labels and coordinates are reserved in one of several
+ * shards chosen by hash, each with its own lock, so producers only contend
+ * when their points hash to the same shard. A point whose label and
+ * coordinates are both free is put on a lock-free queue, and a single
+ * applier thread drains the queue and appends each batch with one
+ * Tour.appendAll (one rebuild of the locator and the spatial index, or
+ * plain appends when the batch is small next to the tour).
+ *
+ * The tour is a ConcurrentTour, so it can be queried while points arrive.
+ * Points are appended in the order they reach the queue. Labels and
+ * coordinates stay reserved for good: points removed from the tour by
+ * other means cannot be added again through the ingestor. A point the tour
+ * rejects nonetheless (its label or coordinates were appended to the tour
+ * directly) is kept in getRejected, and flush then fails.
+ */
+public class TourIngestor<LPoint extends LabeledPoint2D> implements Runnable {
+
+	private static final int MIN_BATCH = 1 << 14; // see run
+	private static final long IDLE_NANOS = 1000000L; // applier sleep when idle (1 ms)
+
+	private final ConcurrentTour<LPoint> tour;
+	private final Shard[] shards;
+	private final ConcurrentLinkedQueue<LPoint> queue; // accepted, not yet applied
+	private final AtomicLong accepted; // points reserved (counted before they are queued, see flush)
+	private volatile long processed; // points taken from the queue: applied, rejected or failed
+	private volatile long applied;
+	private volatile long batches;
+	private final ArrayList<LPoint> rejected = new ArrayList<LPoint>(); // (guarded by progress)
+	private volatile boolean running;
+	private boolean closed; // add fails (guarded by the write lock of adding)
+	private final ReentrantReadWriteLock adding = new ReentrantReadWriteLock(); // add: read, stop: write
+	private volatile boolean alive; // the applier has not ended (see flush)
+	private volatile Exception failure; // first error of the applier
+	private final Object progress = new Object(); // notified after every batch (see flush)
+	private Thread applier;
+
+	/**
+	 * The labels and coordinates reserved in one shard.
+	 */
+	private static class Shard {
+		final HashSet<String> labels = new HashSet<String>();
+		final HashSet<Coord> coords = new HashSet<Coord>();
+	}
+
+	/**
+	 * Coordinates as a hash key (equal as in Point2D.equals).
+	 */
+	private static class Coord {
+		final double x, y;
+
+		Coord(Point2D pt) {
+			x = pt.getX() + 0.0; // maps -0.0 to 0.0
+			y = pt.getY() + 0.0;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Coord && ((Coord) o).x == x && ((Coord) o).y == y;
+		}
+
+		public int hashCode() {
+			return Double.hashCode(x) * 31 + Double.hashCode(y);
+		}
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param tour   The tour to fill (its points are reserved right away)
+	 * @param shards Number of shards (e.g., a few times the number of producers)
+	 */
+	public TourIngestor(ConcurrentTour<LPoint> tour, int shards) {
+		this.tour = tour;
+		this.shards = new Shard[shards];
+		for (int k = 0; k < shards; k++)
+			this.shards[k] = new Shard();
+		queue = new ConcurrentLinkedQueue<LPoint>();
+		accepted = new AtomicLong();
+		for (LPoint pt : tour.list()) {
+			this.shards[shard(pt.getLabel().hashCode())].labels.add(pt.getLabel());
+			Coord c = new Coord(pt.getPoint2D());
+			this.shards[shard(c.hashCode())].coords.add(c);
+		}
+	}
+
+	private int shard(int hash) {
+		return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+	}
+
+	/**
+	 * Start the applier thread.
+	 */
+	public synchronized void start() {
+		if (applier != null)
+			return;
+		adding.writeLock().lock();
+		closed = false;
+		adding.writeLock().unlock();
+		running = true;
+		alive = true;
+		applier = new Thread(this, "tour-ingestor");
+		applier.setDaemon(true);
+		applier.start();
+	}
+
+	/**
+	 * Stop the applier once every point accepted so far is in the tour. Later
+	 * calls of add fail with "Ingestor stopped".
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (applier == null)
+			return;
+		adding.writeLock().lock(); // (waits for the adds in progress)
+		closed = true;
+		adding.writeLock().unlock();
+		running = false;
+		LockSupport.unpark(applier);
+		applier.join();
+		applier = null;
+	}
+
+	/**
+	 * Accept a point for the tour (safe to call from any thread). Returns once
+	 * the point is queued; see flush.
+	 *
+	 * @throws Exception "Duplicate label" or "Duplicate coordinates" as in
+	 *                   Tour.append, if an accepted point already has them, or
+	 *                   "Ingestor stopped" after stop
+	 */
+	public void add(LPoint pt) throws Exception {
+		String label = pt.getLabel();
+		Coord c = new Coord(pt.getPoint2D());
+		int l = shard(label.hashCode()), k = shard(c.hashCode());
+		Shard ls = shards[l], cs = shards[k];
+		adding.readLock().lock();
+		try {
+			if (closed)
+				throw new Exception("Ingestor stopped");
+			// lock both shards (lower index first) so that the point is checked
+			// and reserved as a whole, as if by a single append
+			synchronized (shards[Math.min(l, k)]) {
+				synchronized (shards[Math.max(l, k)]) {
+					if (ls.labels.contains(label))
+						throw new Exception("Duplicate label");
+					if (cs.coords.contains(c))
+						throw new Exception("Duplicate coordinates");
+					ls.labels.add(label);
+					cs.coords.add(c);
+				}
+			}
+			accepted.incrementAndGet();
+			queue.add(pt);
+		} finally {
+			adding.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Wait until every point accepted before the call is in the tour. A point
+	 * is counted before it is queued, so the first (count) points of the
+	 * queue are all counted ones, and once that many are processed, so is
+	 * every point whose add returned before the call.
+	 *
+	 * @throws Exception The error of the applier, if it failed, or if the
+	 *                   tour rejected points (see getRejected)
+	 */
+	public void flush() throws Exception {
+		long target = accepted.get();
+		synchronized (progress) {
+			while (processed < target && failure == null) {
+				if (!alive)
+					throw new Exception("Ingestor not running");
+				progress.wait();
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Applier loop: drain the queue in batches of at most the tour's size
+	 * (and at least MIN_BATCH), which bounds how long one batch holds the
+	 * write lock. Bulk loading stays O(n log n) overall because of
+	 * Tour.appendAll: it only rebuilds the indices for a batch of at least
+	 * an eighth of the tour, so a rebuild costs O(log n) per point of the
+	 * batch, and appends smaller batches one by one at O(log n) per point.
+	 */
+	public void run() {
+		ArrayList<LPoint> batch = new ArrayList<LPoint>();
+		try {
+			while (true) {
+				int limit = Math.max(MIN_BATCH, tour.size());
+				LPoint pt;
+				while (batch.size() < limit && (pt = queue.poll()) != null)
+					batch.add(pt);
+				if (batch.isEmpty()) {
+					if (!running)
+						return;
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+				AppendResult<LPoint> result = null;
+				try {
+					result = tour.write(t -> t.appendAll(batch));
+				} catch (Exception e) {
+					if (failure == null)
+						failure = e;
+				}
+				synchronized (progress) {
+					if (result != null) {
+						applied += result.getAppended();
+						rejected.addAll(result.getDuplicateLabels());
+						rejected.addAll(result.getDuplicateCoordinates());
+						if (!result.isClean() && failure == null)
+							failure = new Exception("Points rejected by the tour (" + result + ")");
+					}
+					processed += batch.size();
+					batches++;
+					progress.notifyAll();
+				}
+				batch.clear();
+			}
+		} finally {
+			synchronized (progress) {
+				alive = false;
+				progress.notifyAll();
+			}
+		}
+	}
+
+	public long getAccepted() { return accepted.get(); }
+
+	public long getApplied() { return applied; }
+
+	public long getBatches() { return batches; }
+
+	public long getQueued() { return Math.max(0, accepted.get() - processed); }
+
+	/**
+	 * Accepted points that the tour rejected as duplicates.
+	 */
+	public ArrayList<LPoint> getRejected() {
+		synchronized (progress) {
+			return new ArrayList<LPoint>(rejected);
+		}
+	}
+}
@@ -0,0 +1,522 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * TourJournal
+ *
+ * A write-ahead journal of the changes of a Tour, so that a tour optimized
+ * over hours survives the process. The journal listens to the tour (see
+ * TourListener) and appends one compact entry per change to a file; recover
+ * loads the last snapshot and replays the journal on top of it.
+ *
+ * Points are numbered in tour order when the journal starts and in order of
+ * arrival afterwards, so most entries are a few bytes: a reversal (every
+ * accepted 2-Opt move) is its two point numbers as varints. Entries are
+ * gathered in frames of up to FRAME_BYTES, each written as
+ *
+ *   [payload length][CRC32 of payload][payload]
+ *
+ * and the file is forced to disk at most once per sync interval (group
+ * commit) or when commit is called. A background thread flushes and syncs
+ * whatever is pending once per interval, so changes are on disk within
+ * about one interval even when no further change follows them. A crash
+ * loses at most the changes since the last sync; a frame that was torn by
+ * the crash fails its length or CRC check and ends the replay.
+ *
+ * The journal header holds a fingerprint of the tour it starts from.
+ * checkpoint writes a new snapshot next to the journal and then starts a
+ * fresh journal, so if the process dies in between, the old journal no
+ * longer matches the new snapshot and is ignored. A snapshot is the
+ * points of the tour in order, in the same frames as the journal, after
+ * a header with the name of the tour's metric:
+ *
+ *   SNAPSHOT_MAGIC, VERSION, number of points, metric name (length, UTF-8)
+ *
+ * where the metric is the one a DistanceCache or DistanceMatrix wraps, so
+ * recover rebuilds the tour with the same distances (PLANAR, HAVERSINE or
+ * CHORD by itself; any other metric has to be passed to recover).
+ */
+public class TourJournal<LPoint extends LabeledPoint2D> implements TourListener<LPoint>, AutoCloseable {
+
+	private static final int MAGIC = 0x5453504A; // "TSPJ"
+	private static final int SNAPSHOT_MAGIC = 0x54535053; // "TSPS"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 20; // magic, version, size, fingerprint
+	private static final int FRAME_BYTES = 1 << 16; // payload that triggers a write
+
+	// entry types
+	private static final byte APPEND = 1; // point
+	private static final byte INSERT = 2; // number of predecessor, point
+	private static final byte REMOVE = 3; // number
+	private static final byte REVERSE = 4; // two numbers
+	private static final byte CLEAR = 5;
+
+	private final Tour<LPoint> tour;
+	private final Path snapshot, journal;
+	private final long syncNanos; // longest time a change waits for its sync
+	private FileChannel channel;
+	private final HashMap<String, Integer> ids; // number of each point in the journal
+	private int nextId;
+	private byte[] buf; // current frame
+	private int size;
+	private long lastSync;
+	private boolean unsynced; // frames written since the last sync
+	private IOException failure; // of the background flush, thrown by the next change or commit
+	private final ScheduledExecutorService flusher; // null if every change syncs
+	private long entries, syncs; // statistics
+
+	/**
+	 * Start journaling a tour: writes a snapshot of its current state, starts
+	 * an empty journal and registers as the listener of the tour.
+	 *
+	 * @param tour           The tour
+	 * @param snapshot       The snapshot file (replaced by every checkpoint)
+	 * @param journal        The journal file
+	 * @param syncIntervalMs Longest time in milliseconds between two syncs
+	 */
+	public TourJournal(Tour<LPoint> tour, Path snapshot, Path journal, long syncIntervalMs) throws Exception {
+		this.tour = tour;
+		this.snapshot = snapshot;
+		this.journal = journal;
+		syncNanos = syncIntervalMs * 1000000L;
+		ids = new HashMap<String, Integer>();
+		buf = new byte[FRAME_BYTES + 64];
+		checkpoint();
+		tour.setListener(this);
+		if (syncNanos > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "tour-journal");
+				t.setDaemon(true);
+				return t;
+			});
+			flusher.scheduleWithFixedDelay(this::tick, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+		} else
+			flusher = null;
+	}
+
+	public synchronized long getEntries() { return entries; }
+
+	public synchronized long getSyncs() { return syncs; }
+
+	/**
+	 * Write a snapshot of the tour and start a fresh journal from it. The
+	 * snapshot is written to a temporary file first and then renamed, so
+	 * either the old or the new snapshot is always complete.
+	 */
+	public synchronized void checkpoint() throws Exception {
+		if (channel != null) {
+			flush(true);
+			channel.close();
+		}
+		Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+		writeSnapshot(tmp);
+		Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		ids.clear();
+		nextId = 0;
+		for (LPoint pt : tour.list())
+			ids.put(pt.getLabel(), nextId++);
+		channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+		head.putInt(MAGIC).putInt(VERSION).putInt(tour.size()).putLong(fingerprint(tour)).flip();
+		while (head.hasRemaining())
+			channel.write(head);
+		channel.force(true);
+		lastSync = System.nanoTime();
+	}
+
+	/**
+	 * Write the points of the tour, in order, as a snapshot (see above).
+	 */
+	private void writeSnapshot(Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			byte[] name = metricName(tour.getDistanceMetric()).getBytes(StandardCharsets.UTF_8);
+			ByteBuffer head = ByteBuffer.allocate(16 + name.length);
+			head.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putInt(tour.size()).putInt(name.length).put(name).flip();
+			while (head.hasRemaining())
+				ch.write(head);
+			for (LPoint pt : tour.list()) {
+				putPoint(pt);
+				if (size >= FRAME_BYTES)
+					writeFrame(ch);
+			}
+			writeFrame(ch);
+			ch.force(true);
+		}
+	}
+
+	/**
+	 * Write and sync all changes so far.
+	 */
+	public synchronized void commit() throws IOException {
+		flush(true);
+	}
+
+	/**
+	 * Commit, close the journal and stop listening to the tour.
+	 */
+	public void close() throws IOException {
+		if (flusher != null)
+			flusher.shutdownNow();
+		synchronized (this) {
+			if (channel == null)
+				return;
+			tour.setListener(null);
+			try {
+				flush(true);
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	/**
+	 * The background flush: writes and syncs the changes of the last
+	 * interval, unless a change or commit already did.
+	 */
+	private synchronized void tick() {
+		if (channel == null || failure != null || (size == 0 && !unsynced))
+			return;
+		try {
+			flush(true);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	// -----------------------------------------------------------------
+	// Recording
+	// -----------------------------------------------------------------
+
+	public synchronized void appended(LPoint pt) {
+		putByte(APPEND);
+		putPoint(pt);
+		ids.put(pt.getLabel(), nextId++);
+		done();
+	}
+
+	public synchronized void inserted(String after, LPoint pt) {
+		putByte(INSERT);
+		putVarint(ids.get(after));
+		putPoint(pt);
+		ids.put(pt.getLabel(), nextId++);
+		done();
+	}
+
+	public synchronized void removed(String label) {
+		putByte(REMOVE);
+		putVarint(ids.remove(label));
+		done();
+	}
+
+	public synchronized void reversed(String label1, String label2) {
+		putByte(REVERSE);
+		putVarint(ids.get(label1));
+		putVarint(ids.get(label2));
+		done();
+	}
+
+	public synchronized void cleared() {
+		putByte(CLEAR);
+		ids.clear();
+		nextId = 0;
+		done();
+	}
+
+	private void putByte(int b) {
+		if (size + 10 > buf.length)
+			buf = Arrays.copyOf(buf, 2 * buf.length);
+		buf[size++] = (byte) b;
+	}
+
+	private void putVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			putByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		putByte(value);
+	}
+
+	private void putPoint(LPoint pt) {
+		byte[] label = pt.getLabel().getBytes(StandardCharsets.UTF_8);
+		putVarint(label.length);
+		for (byte b : label)
+			putByte(b);
+		putLong(Double.doubleToRawLongBits(pt.getX()));
+		putLong(Double.doubleToRawLongBits(pt.getY()));
+	}
+
+	private void putLong(long value) {
+		for (int k = 56; k >= 0; k -= 8)
+			putByte((int) (value >>> k));
+	}
+
+	/**
+	 * End of an entry: write the frame once it is full or the sync interval
+	 * has passed.
+	 */
+	private void done() {
+		entries++;
+		if (size >= FRAME_BYTES || System.nanoTime() - lastSync >= syncNanos) {
+			try {
+				flush(false);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Write the current frame, and sync if asked to or if the sync interval
+	 * has passed.
+	 */
+	private void flush(boolean sync) throws IOException {
+		if (failure != null) {
+			IOException e = failure;
+			failure = null;
+			throw e;
+		}
+		if (size > 0) {
+			writeFrame(channel);
+			unsynced = true;
+		}
+		long now = System.nanoTime();
+		if (unsynced && (sync || now - lastSync >= syncNanos)) {
+			channel.force(false);
+			unsynced = false;
+			lastSync = now;
+			syncs++;
+		}
+	}
+
+	/**
+	 * Write the current frame (if not empty) to a file and start a new one.
+	 */
+	private void writeFrame(FileChannel ch) throws IOException {
+		if (size == 0)
+			return;
+		CRC32 crc = new CRC32();
+		crc.update(buf, 0, size);
+		ByteBuffer head = ByteBuffer.allocate(8);
+		head.putInt(size).putInt((int) crc.getValue()).flip();
+		ByteBuffer[] frame = { head, ByteBuffer.wrap(buf, 0, size) };
+		while (frame[1].hasRemaining())
+			ch.write(frame);
+		size = 0;
+	}
+
+	// -----------------------------------------------------------------
+	// Recovery
+	// -----------------------------------------------------------------
+
+	/**
+	 * Rebuild a tour from its last snapshot and journal, with the metric
+	 * named in the snapshot (see recover with a metric).
+	 */
+	public static <LPoint extends LabeledPoint2D> Tour<LPoint> recover(Path snapshot, Path journal,
+			OffHeapTour.PointFactory<LPoint> factory) throws Exception {
+		return recover(snapshot, journal, factory, null);
+	}
+
+	/**
+	 * Rebuild a tour from its last snapshot and journal. The journal is only
+	 * replayed if it starts from the snapshot (a checkpoint may have died
+	 * between writing the snapshot and starting the new journal), and only up
+	 * to its first torn or corrupt frame. Either file may be missing.
+	 *
+	 * @param snapshot The snapshot file
+	 * @param journal  The journal file
+	 * @param factory  Creates the points (see OffHeapTour.PointFactory)
+	 * @param metric   The metric of the recovered tour (which must be, or
+	 *                 wrap, the one named in the snapshot), or null for the
+	 *                 one named in the snapshot (PLANAR if there is none)
+	 * @return The recovered tour (without a journal attached)
+	 * @throws Exception If the snapshot is corrupt or of another metric
+	 */
+	public static <LPoint extends LabeledPoint2D> Tour<LPoint> recover(Path snapshot, Path journal,
+			OffHeapTour.PointFactory<LPoint> factory, DistanceMetric metric) throws Exception {
+		Tour<LPoint> tour = (Files.exists(snapshot) ? readSnapshot(snapshot, factory, metric)
+				: new Tour<LPoint>(metric != null ? metric : DistanceMetric.PLANAR));
+		if (!Files.exists(journal))
+			return tour;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+			try {
+				if (in.readInt() != MAGIC)
+					throw new Exception("Not a tour journal");
+				if (in.readInt() != VERSION)
+					throw new Exception("Unsupported journal version");
+				if (in.readInt() != tour.size() || in.readLong() != fingerprint(tour))
+					return tour; // the journal is older than the snapshot
+			} catch (EOFException e) {
+				return tour; // died while starting the journal
+			}
+			ArrayList<String> labels = new ArrayList<String>(); // label of each number
+			for (LPoint pt : tour.list())
+				labels.add(pt.getLabel());
+			byte[] frame = new byte[FRAME_BYTES + 64];
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length, check;
+				try {
+					length = in.readInt();
+					check = in.readInt();
+					if (length <= 0 || length > (1 << 30))
+						break;
+					if (length > frame.length)
+						frame = new byte[length];
+					in.readFully(frame, 0, length);
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(frame, 0, length);
+				if ((int) crc.getValue() != check)
+					break;
+				replay(tour, labels, ByteBuffer.wrap(frame, 0, length), factory);
+			}
+		}
+		return tour;
+	}
+
+	/**
+	 * Read a snapshot written by checkpoint into a new tour.
+	 */
+	private static <LPoint extends LabeledPoint2D> Tour<LPoint> readSnapshot(Path snapshot,
+			OffHeapTour.PointFactory<LPoint> factory, DistanceMetric metric) throws Exception {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+			ArrayList<LPoint> pts;
+			try {
+				if (in.readInt() != SNAPSHOT_MAGIC)
+					throw new Exception("Not a tour snapshot");
+				if (in.readInt() != VERSION)
+					throw new Exception("Unsupported snapshot version");
+				int n = in.readInt();
+				byte[] name = new byte[in.readInt()];
+				in.readFully(name);
+				String stored = new String(name, StandardCharsets.UTF_8);
+				if (metric == null)
+					metric = metric(stored);
+				else if (!metricName(metric).equals(stored))
+					throw new Exception("Snapshot of a tour with the " + stored + " metric");
+				pts = new ArrayList<LPoint>(n);
+				byte[] frame = new byte[FRAME_BYTES + 64];
+				CRC32 crc = new CRC32();
+				while (pts.size() < n) {
+					int length = in.readInt(), check = in.readInt();
+					if (length <= 0 || length > (1 << 30))
+						throw new Exception("Corrupt tour snapshot");
+					if (length > frame.length)
+						frame = new byte[length];
+					in.readFully(frame, 0, length);
+					crc.reset();
+					crc.update(frame, 0, length);
+					if ((int) crc.getValue() != check)
+						throw new Exception("Corrupt tour snapshot");
+					ByteBuffer points = ByteBuffer.wrap(frame, 0, length);
+					while (points.hasRemaining())
+						pts.add(getPoint(points, factory));
+				}
+			} catch (EOFException e) {
+				throw new Exception("Truncated tour snapshot");
+			}
+			Tour<LPoint> tour = new Tour<LPoint>(metric);
+			tour.appendAll(pts);
+			return tour;
+		}
+	}
+
+	/**
+	 * The name of a metric, or of the metric it caches (see the class
+	 * comment).
+	 */
+	private static String metricName(DistanceMetric metric) {
+		while (metric instanceof DistanceCache || metric instanceof DistanceMatrix)
+			metric = (metric instanceof DistanceCache ? ((DistanceCache) metric).getBase()
+					: ((DistanceMatrix) metric).getBase());
+		return metric.toString();
+	}
+
+	/**
+	 * The built-in metric of a name written by metricName.
+	 */
+	private static DistanceMetric metric(String name) throws Exception {
+		for (DistanceMetric m : new DistanceMetric[] { DistanceMetric.PLANAR, DistanceMetric.HAVERSINE,
+				DistanceMetric.CHORD }) {
+			if (m.toString().equals(name))
+				return m;
+		}
+		throw new Exception("Snapshot of a tour with the " + name + " metric (pass it to recover)");
+	}
+
+	private static <LPoint extends LabeledPoint2D> void replay(Tour<LPoint> tour, ArrayList<String> labels,
+			ByteBuffer in, OffHeapTour.PointFactory<LPoint> factory) throws Exception {
+		while (in.hasRemaining()) {
+			byte op = in.get();
+			if (op == APPEND) {
+				LPoint pt = getPoint(in, factory);
+				tour.append(pt);
+				labels.add(pt.getLabel());
+			} else if (op == INSERT) {
+				String after = labels.get(getVarint(in));
+				LPoint pt = getPoint(in, factory);
+				tour.insertAfter(after, pt);
+				labels.add(pt.getLabel());
+			} else if (op == REMOVE)
+				tour.remove(labels.get(getVarint(in)));
+			else if (op == REVERSE)
+				tour.reverse(labels.get(getVarint(in)), labels.get(getVarint(in)));
+			else if (op == CLEAR) {
+				tour.clear();
+				labels.clear();
+			} else
+				throw new Exception("Corrupt journal entry");
+		}
+	}
+
+	private static int getVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	private static <LPoint extends LabeledPoint2D> LPoint getPoint(ByteBuffer in,
+			OffHeapTour.PointFactory<LPoint> factory) {
+		byte[] label = new byte[getVarint(in)];
+		in.get(label);
+		double x = in.getDouble(), y = in.getDouble();
+		return factory.create(new String(label, StandardCharsets.UTF_8), x, y);
+	}
+
+	/**
+	 * A hash of the size and the label order of a tour.
+	 */
+	private static long fingerprint(Tour<? extends LabeledPoint2D> tour) {
+		long h = tour.size();
+		for (LabeledPoint2D pt : tour.list())
+			h = h * 0x9E3779B97F4A7C15L + pt.getLabel().hashCode();
+		return h;
+	}
+}
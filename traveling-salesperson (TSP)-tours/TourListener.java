@@ -0,0 +1,32 @@
+/**
+ * TourListener
+ *
+ * Is told about every change of a Tour right after it has been applied (see
+ * Tour.setListener). Changes are reported by label, and the tour operations
+ * only depend on the order of the points (not on where they are stored), so
+ * calling the corresponding Tour methods with the same arguments on a tour
+ * with the same order reproduces the change:
+ *
+ *   - appended(pt): append(pt), also for every point kept by appendAll
+ *   - inserted(after, pt): insertAfter(after, pt), also for insertCheapest
+ *   - removed(label): remove(label)
+ *   - reversed(label1, label2): reverse(label1, label2), also for every
+ *     move made by twoOpt, twoOptNN, allTwoOpt and TwoOptCursor, and for
+ *     every move undone by rollback
+ *   - cleared(): clear()
+ *
+ * Since clear cannot fail, neither can a listener: errors must be thrown as
+ * unchecked exceptions.
+ */
+public interface TourListener<LPoint extends LabeledPoint2D> {
+
+	void appended(LPoint pt);
+
+	void inserted(String after, LPoint pt);
+
+	void removed(String label);
+
+	void reversed(String label1, String label2);
+
+	void cleared();
+}
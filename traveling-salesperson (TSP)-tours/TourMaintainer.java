@@ -0,0 +1,381 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Online tour maintenance.
+ *
+ * A TourMaintainer owns a Tour and applies a stream of point arrivals and
+ * departures to it from a single worker thread: an arrival is inserted with
+ * Tour.insertCheapest and a departure is removed with Tour.remove as soon as
+ * it is dequeued. The cities touched by an event are marked dirty, and
+ * whenever the event queue is empty the worker repairs the tour around dirty
+ * cities with 2-Opt and Or-opt moves whose candidates come from
+ * Tour.circularRange (the classical "don't look bits" scheme). A city stays
+ * dirty until no improving move exists around it, and every applied move
+ * marks its endpoints dirty again, so the repair never leaves the
+ * neighbourhood of the events and a global allTwoOpt is never needed.
+ *
+ * The quality bound is the number of dirty cities: once more than maxDirty
+ * cities wait for repair, the worker repairs before it accepts further
+ * events. Since only the worker touches the tour, all reads go through
+ * read(), which runs the query on the worker between two events.
+ *
+ * A repair that fails leaves the tour as it was (a 2-Opt move is a single
+ * reversal, and Or-opt puts its segment back) and is counted, with the
+ * last such error kept for inspection (getRepairFailures). Events
+ * submitted after stop fail with "Maintainer stopped".
+ */
+public class TourMaintainer<LPoint extends LabeledPoint2D> implements Runnable {
+
+	private static final int MAX_SEGMENT = 3; // longest segment moved by Or-opt
+	private static final double EPSILON = 1e-9; // relative gain that counts (avoids cycling)
+
+	private final Tour<LPoint> tour; // the maintained tour (worker thread only)
+	private final LinkedBlockingQueue<Runnable> events; // pending events
+	private final LinkedHashSet<String> dirty; // cities waiting for repair
+	private final int maxDirty; // quality bound (see above)
+	private volatile boolean running;
+	private final Object gate = new Object(); // orders submits against the end of the worker
+	private boolean closed; // no more events are run (guarded by gate)
+	private Thread worker;
+
+	// statistics (written by the worker only)
+	private volatile long eventsApplied;
+	private volatile long repairMoves;
+	private volatile long lastLatency; // nanoseconds from submit to applied
+	private volatile long maxLatency;
+	private volatile long repairFailures;
+	private volatile Exception lastRepairFailure;
+	private volatile int pendingRepairs; // dirty.size(), for other threads
+
+	/**
+	 * constructor
+	 *
+	 * @param tour     The tour to maintain (must not be used directly afterwards)
+	 * @param maxDirty Most cities allowed to wait for repair before events are
+	 *                 held back
+	 */
+	public TourMaintainer(Tour<LPoint> tour, int maxDirty) {
+		this.tour = tour;
+		this.maxDirty = maxDirty;
+		events = new LinkedBlockingQueue<Runnable>();
+		dirty = new LinkedHashSet<String>();
+		running = false;
+	}
+
+	/**
+	 * Start the worker thread.
+	 */
+	public synchronized void start() {
+		if (worker != null)
+			return;
+		synchronized (gate) {
+			closed = false;
+		}
+		running = true;
+		worker = new Thread(this, "tour-maintainer");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Stop the worker after the events submitted so far have been applied.
+	 * The futures of later events fail.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (worker == null)
+			return;
+		events.add(() -> running = false);
+		worker.join();
+		worker = null;
+	}
+
+	/**
+	 * Queue the arrival of a point. The future completes once the point is in
+	 * the tour, or exceptionally with the error of Tour.insertCheapest.
+	 */
+	public CompletableFuture<Void> add(LPoint pt) {
+		return submit(t -> {
+			t.insertCheapest(pt);
+			touch(pt.getLabel());
+			return null;
+		});
+	}
+
+	/**
+	 * Queue the departure of a point. The future completes with the removed
+	 * point, or exceptionally with the error of Tour.remove.
+	 */
+	public CompletableFuture<LPoint> remove(String label) {
+		return submit(t -> {
+			if (t.get(label) == null)
+				throw new Exception("Label not found");
+			LPoint before = t.prev(label), after = t.next(label);
+			LPoint pt = t.remove(label);
+			untouch(label);
+			if (t.size() > 0) {
+				touch(before.getLabel());
+				touch(after.getLabel());
+			}
+			return pt;
+		});
+	}
+
+	/**
+	 * Run a read-only query against the tour on the worker thread.
+	 */
+	public <T> CompletableFuture<T> read(Function<Tour<LPoint>, T> query) {
+		return submit(t -> query.apply(t));
+	}
+
+	/**
+	 * A unit of work on the tour that may fail.
+	 */
+	private interface Action<LPoint extends LabeledPoint2D, T> {
+		T apply(Tour<LPoint> tour) throws Exception;
+	}
+
+	/**
+	 * A submitted event and its future.
+	 */
+	private class Pending<T> implements Runnable {
+		final Action<LPoint, T> action;
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final long submitted = System.nanoTime();
+
+		Pending(Action<LPoint, T> action) {
+			this.action = action;
+		}
+
+		public void run() {
+			try {
+				result.complete(action.apply(tour));
+			} catch (Exception e) {
+				result.completeExceptionally(e);
+			} catch (Error e) {
+				result.completeExceptionally(e);
+				throw e; // (ends the worker, see run)
+			}
+			long latency = System.nanoTime() - submitted;
+			lastLatency = latency;
+			maxLatency = Math.max(maxLatency, latency);
+			eventsApplied++;
+		}
+	}
+
+	private <T> CompletableFuture<T> submit(Action<LPoint, T> action) {
+		Pending<T> event = new Pending<T>(action);
+		synchronized (gate) {
+			if (closed)
+				event.result.completeExceptionally(new Exception("Maintainer stopped"));
+			else
+				events.add(event);
+		}
+		return event.result;
+	}
+
+	/**
+	 * Worker loop: events first, repairs when idle (or when too many cities
+	 * wait for repair). Events still queued when it ends, also by an Error,
+	 * are failed.
+	 */
+	public void run() {
+		try {
+			while (running) {
+				try {
+					Runnable event = null;
+					if (dirty.isEmpty())
+						event = events.take();
+					else if (dirty.size() <= maxDirty)
+						event = events.poll();
+					if (event != null)
+						event.run();
+					else
+						repairNext();
+				} catch (InterruptedException e) {
+					running = false;
+				} catch (Exception e) {
+					// the failed repair left the tour as it was (see moveSegment)
+					repairFailures++;
+					lastRepairFailure = e;
+				}
+			}
+		} finally {
+			running = false;
+			synchronized (gate) {
+				closed = true;
+			}
+			ArrayList<Runnable> left = new ArrayList<Runnable>();
+			events.drainTo(left);
+			Exception stopped = new Exception("Maintainer stopped");
+			for (Runnable event : left) {
+				if (event instanceof TourMaintainer<?>.Pending<?>)
+					((TourMaintainer<?>.Pending<?>) event).result.completeExceptionally(stopped);
+			}
+		}
+	}
+
+	public int getPendingRepairs() { return pendingRepairs; }
+
+	public int getQueuedEvents() { return events.size(); }
+
+	public long getEventsApplied() { return eventsApplied; }
+
+	public long getRepairMoves() { return repairMoves; }
+
+	/**
+	 * Repairs that failed (each left the tour as it was).
+	 */
+	public long getRepairFailures() { return repairFailures; }
+
+	/**
+	 * The error of the last failed repair, or null.
+	 */
+	public Exception getLastRepairFailure() { return lastRepairFailure; }
+
+	public long getLastLatencyNanos() { return lastLatency; }
+
+	public long getMaxLatencyNanos() { return maxLatency; }
+
+	// -----------------------------------------------------------------
+	// Local repair
+	// -----------------------------------------------------------------
+
+	private void touch(String label) {
+		dirty.add(label);
+		pendingRepairs = dirty.size();
+	}
+
+	private void untouch(String label) {
+		dirty.remove(label);
+		pendingRepairs = dirty.size();
+	}
+
+	/**
+	 * Take one dirty city and look for an improving move around it. If one is
+	 * applied, the city stays dirty (there may be more).
+	 */
+	private void repairNext() throws Exception {
+		String label = dirty.iterator().next();
+		untouch(label);
+		if (tour.get(label) == null || tour.size() < 5)
+			return;
+		if (twoOptAround(label) || orOptAround(label)) {
+			repairMoves++;
+			touch(label);
+		}
+	}
+
+	/**
+	 * Candidates: the points within the longer of the two tour edges at the
+	 * city. This is the usual neighbour-list restriction: an improving move
+	 * always has an endpoint whose new edge is shorter than the tour edge it
+	 * replaces there, and the endpoints of every change are marked dirty.
+	 */
+	private ArrayList<LPoint> candidates(LPoint city) throws Exception {
+		Point2D c = city.getPoint2D();
+		DistanceMetric metric = tour.getDistanceMetric();
+		double r = Math.max(metric.distanceSq(c, tour.next(city.getLabel()).getPoint2D()),
+				metric.distanceSq(c, tour.prev(city.getLabel()).getPoint2D()));
+		return tour.circularRange(c, (float) r);
+	}
+
+	/**
+	 * Try 2-Opt moves that replace one of the two tour edges at the city.
+	 */
+	private boolean twoOptAround(String label) throws Exception {
+		LPoint city = tour.get(label);
+		for (LPoint cand : candidates(city)) {
+			String other = cand.getLabel();
+			if (other.equals(label))
+				continue;
+			// replaces (city, next) and (cand, next(cand))
+			if (tour.twoOpt(label, other)) {
+				touch(other);
+				return true;
+			}
+			// replaces (prev, city) and (prev(cand), cand)
+			String p = tour.prev(label).getLabel(), q = tour.prev(other).getLabel();
+			if (!p.equals(q) && tour.twoOpt(p, q)) {
+				touch(other);
+				touch(p);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Try to move the segment of 1..MAX_SEGMENT cities starting at the city to
+	 * between a candidate and its successor, in either orientation.
+	 */
+	private boolean orOptAround(String label) throws Exception {
+		ArrayList<LPoint> cands = candidates(tour.get(label));
+		ArrayList<LPoint> segment = new ArrayList<LPoint>();
+		segment.add(tour.get(label));
+		for (int len = 1; len <= MAX_SEGMENT && len + 2 < tour.size(); len++) {
+			if (len > 1)
+				segment.add(tour.next(segment.get(len - 2).getLabel()));
+			LPoint first = segment.get(0), last = segment.get(len - 1);
+			LPoint before = tour.prev(first.getLabel()), after = tour.next(last.getLabel());
+			double removeGain = dist(before, first) + dist(last, after) - dist(before, after);
+			for (LPoint c : cands) {
+				if (segment.contains(c) || c == before)
+					continue;
+				LPoint cn = tour.next(c.getLabel());
+				if (segment.contains(cn))
+					continue;
+				double base = dist(c, cn);
+				double forward = dist(c, first) + dist(last, cn) - base;
+				double backward = dist(c, last) + dist(first, cn) - base;
+				boolean reversed = backward < forward;
+				// (costs are sums of squares, so removeGain may be negative:
+				// the move must gain strictly, or it could be undone forever)
+				if (removeGain - Math.min(forward, backward) > EPSILON * Math.abs(removeGain)) {
+					moveSegment(segment, before, c, reversed);
+					touch(before.getLabel());
+					touch(c.getLabel());
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move the segment (which follows before) to after c. If that fails, the
+	 * segment is put back after before and the error is rethrown.
+	 */
+	private void moveSegment(ArrayList<LPoint> segment, LPoint before, LPoint c, boolean reversed)
+			throws Exception {
+		int len = segment.size();
+		try {
+			for (LPoint pt : segment)
+				tour.remove(pt.getLabel());
+			String at = c.getLabel();
+			for (int k = 0; k < len; k++) {
+				LPoint pt = segment.get(reversed ? len - 1 - k : k);
+				tour.insertAfter(at, pt);
+				at = pt.getLabel();
+			}
+		} catch (Exception e) {
+			for (LPoint pt : segment) {
+				if (tour.get(pt.getLabel()) != null)
+					tour.remove(pt.getLabel());
+			}
+			String at = before.getLabel();
+			for (LPoint pt : segment) {
+				tour.insertAfter(at, pt);
+				at = pt.getLabel();
+			}
+			throw e;
+		}
+	}
+
+	private double dist(LPoint a, LPoint b) {
+		return tour.getDistanceMetric().distanceSq(a.getPoint2D(), b.getPoint2D());
+	}
+}
@@ -0,0 +1,236 @@
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end scaling and regression report for tour optimization.
+ *
+ * Usage: java TourReport [-sizes 1000,10000] [-data uniform,clustered,grid,collinear]
+ *                        [-seeds 1,2] [-construct append,cheapest]
+ *                        [-improve none,twoOpt,twoOptNN] [-limit seconds]
+ *                        [-out results.jsonl]
+ *        java TourReport -compare base.jsonl head.jsonl [-tolerance 0.10]
+ *
+ * Every combination of instance (see Instances), size, seed, construction
+ * and improvement is run once:
+ *
+ *   - construction: "append" appends the points in instance order (one
+ *     appendAll); "cheapest" starts with three points and adds the others
+ *     with insertCheapest
+ *   - improvement: "none"; "twoOpt" runs a TwoOptCursor in slices of
+ *     SLICE_NANOS; "twoOptNN" calls twoOptNN on every point, pass after
+ *     pass, until a pass moves nothing. Both stop at the time limit.
+ *
+ * Each run is written as one JSON line: the final cost, wall times, moves
+ * per second, peak heap, GC time and a trace of [milliseconds, cost]
+ * pairs taken after every slice/pass (the time spent computing the trace
+ * costs is not counted). Instances are reproducible from (kind, n, seed),
+ * so two result files of the same configuration can be compared:
+ * -compare pairs up the runs of two files and flags every run whose final
+ * cost got worse or whose time grew by more than the tolerance (runs under
+ * MIN_COMPARED_MS are only checked for cost). Every pipeline first runs
+ * once, unreported, on a small instance, so that the first reported runs
+ * are not timed in the interpreter.
+ */
+public class TourReport {
+
+	private static final long SLICE_NANOS = 20000000L; // 20 ms
+	private static final int WARMUP_SIZE = 500; // instance size of the untimed warmup runs
+	private static final double MIN_COMPARED_MS = 50; // shorter runs are too noisy to flag
+
+	public static void main(String[] args) throws Exception {
+		if (args.length >= 3 && args[0].equals("-compare")) {
+			double tolerance = (args.length >= 5 && args[3].equals("-tolerance") ? Double.parseDouble(args[4]) : 0.10);
+			System.exit(compare(args[1], args[2], tolerance) ? 0 : 1);
+		}
+		int[] sizes = { 1000, 10000 };
+		String[] kinds = { "uniform", "clustered", "grid", "collinear" };
+		int[] seeds = { 1 };
+		String[] constructions = { "append", "cheapest" };
+		String[] improvements = { "none", "twoOpt", "twoOptNN" };
+		double limit = 60;
+		PrintStream out = System.out;
+		for (int k = 0; k + 1 < args.length; k += 2) {
+			String value = args[k + 1];
+			if (args[k].equals("-sizes"))
+				sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+			else if (args[k].equals("-data"))
+				kinds = value.split(",");
+			else if (args[k].equals("-seeds"))
+				seeds = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+			else if (args[k].equals("-construct"))
+				constructions = value.split(",");
+			else if (args[k].equals("-improve"))
+				improvements = value.split(",");
+			else if (args[k].equals("-limit"))
+				limit = Double.parseDouble(value);
+			else if (args[k].equals("-out"))
+				out = new PrintStream(Files.newOutputStream(Paths.get(value)), true, "UTF-8");
+			else
+				throw new Exception("Unknown option: " + args[k]);
+		}
+		for (String construction : constructions)
+			for (String improvement : improvements)
+				run(kinds[0], WARMUP_SIZE, 0, construction, improvement, (long) (limit * 1e9));
+		for (String kind : kinds)
+			for (int n : sizes)
+				for (int seed : seeds)
+					for (String construction : constructions)
+						for (String improvement : improvements)
+							out.println(run(kind, n, seed, construction, improvement, (long) (limit * 1e9)));
+		if (out != System.out)
+			out.close();
+	}
+
+	// -----------------------------------------------------------------
+	// One run
+	// -----------------------------------------------------------------
+
+	private static String run(String kind, int n, int seed, String construction, String improvement, long limit)
+			throws Exception {
+		ArrayList<Airport> pts = Instances.generate(kind, n, seed);
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			pool.resetPeakUsage();
+		long gc0 = gcMillis();
+
+		long start = System.nanoTime();
+		Tour<Airport> tour = new Tour<Airport>();
+		if (construction.equals("append"))
+			tour.appendAll(pts);
+		else if (construction.equals("cheapest")) {
+			for (Airport pt : pts)
+				tour.insertCheapest(pt);
+		} else
+			throw new Exception("Unknown construction: " + construction);
+		long constructNanos = System.nanoTime() - start;
+		double initialCost = tour.cost();
+
+		StringBuilder trace = new StringBuilder();
+		long improveNanos = 0, moves = 0;
+		boolean optimum = true;
+		if (improvement.equals("twoOpt")) {
+			Tour<Airport>.TwoOptCursor cursor = tour.twoOptCursor();
+			while (!cursor.isLocalOptimum() && improveNanos < limit) {
+				long t = System.nanoTime();
+				moves += cursor.stepNanos(SLICE_NANOS);
+				improveNanos += System.nanoTime() - t;
+				point(trace, improveNanos, tour.cost());
+			}
+			optimum = cursor.isLocalOptimum();
+		} else if (improvement.equals("twoOptNN")) {
+			ArrayList<String> labels = new ArrayList<String>();
+			for (Airport pt : pts)
+				labels.add(pt.getLabel());
+			boolean improved = true;
+			while (improved && improveNanos < limit) {
+				long t = System.nanoTime();
+				improved = false;
+				for (String label : labels) {
+					if (tour.twoOptNN(label) != null) {
+						moves++;
+						improved = true;
+					}
+				}
+				improveNanos += System.nanoTime() - t;
+				point(trace, improveNanos, tour.cost());
+			}
+			optimum = !improved;
+		} else if (!improvement.equals("none"))
+			throw new Exception("Unknown improvement: " + improvement);
+
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peakHeap += pool.getPeakUsage().getUsed();
+		}
+		return String.format(Locale.ROOT,
+				"{\"instance\":\"%s\",\"n\":%d,\"seed\":%d,\"construction\":\"%s\",\"improvement\":\"%s\","
+						+ "\"initialCost\":%.17g,\"finalCost\":%.17g,\"constructMs\":%.3f,\"improveMs\":%.3f,"
+						+ "\"moves\":%d,\"movesPerSec\":%.1f,\"localOptimum\":%b,\"peakHeapBytes\":%d,\"gcMs\":%d,"
+						+ "\"trace\":[%s]}",
+				kind, tour.size(), seed, construction, improvement, initialCost, tour.cost(), constructNanos / 1e6,
+				improveNanos / 1e6, moves, (improveNanos == 0 ? 0 : moves * 1e9 / improveNanos), optimum, peakHeap,
+				gcMillis() - gc0, trace);
+	}
+
+	private static void point(StringBuilder trace, long nanos, double cost) {
+		if (trace.length() > 0)
+			trace.append(',');
+		trace.append(String.format(Locale.ROOT, "[%.3f,%.17g]", nanos / 1e6, cost));
+	}
+
+	private static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			total += Math.max(0, gc.getCollectionTime());
+		return total;
+	}
+
+	// -----------------------------------------------------------------
+	// Comparison of two result files
+	// -----------------------------------------------------------------
+
+	private static final Pattern FIELD = Pattern.compile("\"(\\w+)\":(\"[^\"]*\"|[^,\\[\\]{}]+)");
+
+	/**
+	 * The scalar fields of a result line (the trace is skipped).
+	 */
+	private static LinkedHashMap<String, String> fields(String line) {
+		LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+		Matcher m = FIELD.matcher(line.substring(0, Math.max(0, line.indexOf("\"trace\""))));
+		while (m.find())
+			result.put(m.group(1), m.group(2).replace("\"", ""));
+		return result;
+	}
+
+	private static String key(LinkedHashMap<String, String> f) {
+		return f.get("instance") + "/" + f.get("n") + "/" + f.get("seed") + "/" + f.get("construction") + "/"
+				+ f.get("improvement");
+	}
+
+	/**
+	 * Print one line per run found in both files; true if nothing regressed.
+	 */
+	private static boolean compare(String baseFile, String headFile, double tolerance) throws Exception {
+		LinkedHashMap<String, LinkedHashMap<String, String>> base = new LinkedHashMap<String, LinkedHashMap<String, String>>();
+		for (String line : Files.readAllLines(Paths.get(baseFile))) {
+			if (!line.isEmpty())
+				base.put(key(fields(line)), fields(line));
+		}
+		boolean ok = true;
+		System.out.println("run\tcost ratio\ttime ratio\tstatus");
+		for (String line : Files.readAllLines(Paths.get(headFile))) {
+			if (line.isEmpty())
+				continue;
+			LinkedHashMap<String, String> head = fields(line);
+			LinkedHashMap<String, String> old = base.get(key(head));
+			if (old == null)
+				continue;
+			double costRatio = Double.parseDouble(head.get("finalCost")) / Double.parseDouble(old.get("finalCost"));
+			double oldTime = Double.parseDouble(old.get("constructMs")) + Double.parseDouble(old.get("improveMs"));
+			double newTime = Double.parseDouble(head.get("constructMs")) + Double.parseDouble(head.get("improveMs"));
+			double timeRatio = newTime / Math.max(oldTime, 1e-3);
+			String status = "ok";
+			if (costRatio > 1 + 1e-9) {
+				status = "REGRESSION (cost)";
+				ok = false;
+			} else if (timeRatio > 1 + tolerance && newTime >= MIN_COMPARED_MS) {
+				status = "REGRESSION (time)";
+				ok = false;
+			}
+			System.out.printf(Locale.ROOT, "%s\t%.6f\t%.3f\t%s%n", key(head), costRatio, timeRatio, status);
+		}
+		return ok;
+	}
+}
@@ -0,0 +1,343 @@
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous optimization of many small independent tours.
+ *
+ * submit builds a tour from the given points and improves it with the given
+ * strategy until the strategy is done or the deadline passes, whichever
+ * comes first; the returned future then completes with the tour. Cancelling
+ * the future drops the job at its next time slice.
+ *
+ * Jobs run in time slices of sliceNanos on a work-stealing pool, and at
+ * most parallelism slices run at a time. Between slices a job goes back to
+ * the front of the queue of its tenant, and the next slice goes to the next
+ * tenant with waiting jobs (round robin): a tenant with many or long jobs
+ * cannot starve the others, while its own jobs finish one after the other
+ * instead of all sharing its slices (and all finishing late).
+ *
+ * Tours of cancelled or failed jobs, and tours handed back with release,
+ * are cleared and kept (up to MAX_POOLED) for later jobs. Tour.appendAll
+ * refills a cleared tour in place, so such a job reuses the slot list of
+ * the tour and the nodes of its locator and spatial index.
+ */
+public class TourService<LPoint extends LabeledPoint2D> {
+
+	private static final int MAX_POOLED = 64; // spare tours kept for reuse
+	private static final int LATENCY_SAMPLES = 4096; // latencies kept for percentiles
+
+	/**
+	 * An optimization strategy: start is called once per job, on the tour
+	 * built from its points.
+	 */
+	public interface Strategy<LPoint extends LabeledPoint2D> {
+		Run start(Tour<LPoint> tour) throws Exception;
+	}
+
+	/**
+	 * A strategy running on one tour.
+	 */
+	public interface Run {
+		/**
+		 * Improve the tour for roughly the given time.
+		 *
+		 * @return true once the strategy has nothing left to do
+		 */
+		boolean step(long nanos) throws Exception;
+	}
+
+	/**
+	 * 2-Opt until a local optimum (see Tour.TwoOptCursor).
+	 */
+	public static <LPoint extends LabeledPoint2D> Strategy<LPoint> twoOpt() {
+		return tour -> {
+			Tour<LPoint>.TwoOptCursor cursor = tour.twoOptCursor();
+			return nanos -> {
+				cursor.stepNanos(nanos);
+				return cursor.isLocalOptimum();
+			};
+		};
+	}
+
+	/**
+	 * No optimization: the tour in the order of the points.
+	 */
+	public static <LPoint extends LabeledPoint2D> Strategy<LPoint> none() {
+		return tour -> nanos -> true;
+	}
+
+	private class Job {
+		final String tenant;
+		final ArrayList<LPoint> points;
+		final Strategy<LPoint> strategy;
+		final long submitted, deadline; // System.nanoTime()
+		final CompletableFuture<Tour<LPoint>> result;
+		Tour<LPoint> tour; // null until the first slice
+		Run run;
+
+		Job(String tenant, Collection<LPoint> points, Strategy<LPoint> strategy, Duration deadline) {
+			this.tenant = tenant;
+			this.points = new ArrayList<LPoint>(points);
+			this.strategy = strategy;
+			submitted = System.nanoTime();
+			this.deadline = submitted + deadline.toNanos();
+			result = new CompletableFuture<Tour<LPoint>>();
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final int parallelism;
+	private final long sliceNanos;
+
+	// scheduler state (guarded by this)
+	private final HashMap<String, ArrayDeque<Job>> waiting; // waiting jobs of each tenant
+	private final ArrayDeque<String> ring; // tenants with waiting jobs, next first
+	private int running; // slices in progress
+	private int jobs; // jobs submitted and not finished
+	private boolean shutdown;
+
+	private final ConcurrentLinkedQueue<Tour<LPoint>> spare; // cleared tours
+	private final AtomicInteger spareCount;
+	private final long[] latencies; // ring buffer of submit-to-complete times (guarded by itself)
+	private long completed;
+
+	/**
+	 * constructor
+	 *
+	 * @param parallelism Number of slices run at the same time (e.g., the
+	 *                    number of cores)
+	 * @param sliceNanos  Length of a time slice in nanoseconds
+	 */
+	public TourService(int parallelism, long sliceNanos) {
+		this.parallelism = parallelism;
+		this.sliceNanos = sliceNanos;
+		pool = new ForkJoinPool(parallelism);
+		waiting = new HashMap<String, ArrayDeque<Job>>();
+		ring = new ArrayDeque<String>();
+		spare = new ConcurrentLinkedQueue<Tour<LPoint>>();
+		spareCount = new AtomicInteger();
+		latencies = new long[LATENCY_SAMPLES];
+	}
+
+	/**
+	 * Submit a job for the default tenant.
+	 */
+	public CompletableFuture<Tour<LPoint>> submit(Collection<LPoint> points, Strategy<LPoint> strategy,
+			Duration deadline) {
+		return submit("", points, strategy, deadline);
+	}
+
+	/**
+	 * Submit a job.
+	 *
+	 * @param tenant   The tenant (slices are shared fairly between tenants)
+	 * @param points   The points of the tour, in initial order (duplicates are
+	 *                 dropped as by Tour.appendAll)
+	 * @param strategy The optimization strategy
+	 * @param deadline Time from now after which the job completes with the
+	 *                 tour as it is
+	 * @return The future tour
+	 */
+	public CompletableFuture<Tour<LPoint>> submit(String tenant, Collection<LPoint> points,
+			Strategy<LPoint> strategy, Duration deadline) {
+		Job job = new Job(tenant, points, strategy, deadline);
+		synchronized (this) {
+			if (shutdown) {
+				job.result.completeExceptionally(new Exception("Service shut down"));
+				return job.result;
+			}
+			jobs++;
+			enqueue(job, false);
+			pump();
+		}
+		return job.result;
+	}
+
+	/**
+	 * Hand a tour returned by a job back for reuse. It must not be used
+	 * afterwards.
+	 */
+	public void release(Tour<LPoint> tour) {
+		tour.setListener(null);
+		tour.clear();
+		if (spareCount.incrementAndGet() <= MAX_POOLED)
+			spare.add(tour);
+		else
+			spareCount.decrementAndGet();
+	}
+
+	/**
+	 * Stop accepting jobs and cancel the unfinished ones: the waiting jobs
+	 * right away, the running ones at the end of their current slice. The
+	 * pool ends once those slices have.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			shutdown = true;
+			for (ArrayDeque<Job> queue : waiting.values()) {
+				for (Job job : queue) {
+					job.result.cancel(false);
+					jobs--;
+				}
+			}
+			waiting.clear();
+			ring.clear();
+		}
+		pool.shutdown();
+	}
+
+	// -----------------------------------------------------------------
+	// Scheduling
+	// -----------------------------------------------------------------
+
+	private void enqueue(Job job, boolean first) {
+		ArrayDeque<Job> queue = waiting.get(job.tenant);
+		if (queue == null) {
+			queue = new ArrayDeque<Job>();
+			waiting.put(job.tenant, queue);
+			ring.add(job.tenant);
+		}
+		if (first)
+			queue.addFirst(job);
+		else
+			queue.add(job);
+	}
+
+	/**
+	 * The first waiting job of the next tenant in turn.
+	 */
+	private Job next() {
+		String tenant = ring.poll();
+		ArrayDeque<Job> queue = waiting.get(tenant);
+		Job job = queue.poll();
+		if (queue.isEmpty())
+			waiting.remove(tenant);
+		else
+			ring.add(tenant);
+		return job;
+	}
+
+	/**
+	 * Start slices while there are free workers and waiting jobs (none once
+	 * shut down).
+	 */
+	private void pump() {
+		while (!shutdown && running < parallelism && !ring.isEmpty()) {
+			Job job = next();
+			running++;
+			try {
+				pool.execute(() -> slice(job));
+			} catch (RejectedExecutionException e) {
+				running--;
+				jobs--;
+				job.result.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Run one time slice of a job. Only jobs that complete with their tour
+	 * are sampled for the latency statistics.
+	 */
+	private void slice(Job job) {
+		boolean done = true;
+		try {
+			if (!job.result.isDone()) { // (not cancelled)
+				if (job.tour == null) {
+					job.tour = acquire();
+					job.tour.appendAll(job.points);
+					job.run = job.strategy.start(job.tour);
+				}
+				long left = job.deadline - System.nanoTime();
+				done = (left <= 0 || job.run.step(Math.min(sliceNanos, left)) || System.nanoTime() >= job.deadline);
+				if (done && job.result.complete(job.tour)) {
+					job.tour = null; // handed out
+					recordLatency(System.nanoTime() - job.submitted);
+				}
+			}
+		} catch (Throwable e) { // (an Error too, or the job would never end)
+			done = true;
+			job.result.completeExceptionally(e);
+		}
+		synchronized (this) {
+			running--;
+			if (!done && shutdown) { // (not to run again)
+				job.result.cancel(false);
+				done = true;
+			}
+			if (done)
+				jobs--;
+			else
+				enqueue(job, true);
+			pump();
+		}
+		if (done && job.tour != null) { // cancelled or failed
+			Tour<LPoint> tour = job.tour;
+			job.tour = null;
+			job.run = null;
+			try {
+				release(tour);
+			} catch (Throwable e) {
+				// (a tour that cannot be cleared is not reused)
+			}
+		}
+	}
+
+	private Tour<LPoint> acquire() {
+		Tour<LPoint> tour = spare.poll();
+		if (tour == null)
+			return new Tour<LPoint>();
+		spareCount.decrementAndGet();
+		return tour;
+	}
+
+	// -----------------------------------------------------------------
+	// Statistics
+	// -----------------------------------------------------------------
+
+	private void recordLatency(long nanos) {
+		synchronized (latencies) {
+			latencies[(int) (completed++ % LATENCY_SAMPLES)] = nanos;
+		}
+	}
+
+	/**
+	 * Jobs submitted and not finished yet (waiting or running).
+	 */
+	public synchronized int getQueueDepth() { return jobs; }
+
+	/**
+	 * Slices running right now.
+	 */
+	public synchronized int getRunning() { return running; }
+
+	/**
+	 * Cleared tours kept for reuse.
+	 */
+	public int getPooledTours() { return spareCount.get(); }
+
+	/**
+	 * A percentile (0..100) of the submit-to-complete latency, in
+	 * nanoseconds, over the last LATENCY_SAMPLES jobs (0 if none finished).
+	 */
+	public long getLatencyPercentile(double percentile) {
+		long[] sorted;
+		synchronized (latencies) {
+			sorted = Arrays.copyOf(latencies, (int) Math.min(completed, LATENCY_SAMPLES));
+		}
+		if (sorted.length == 0)
+			return 0;
+		Arrays.sort(sorted);
+		int k = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(k, sorted.length - 1))];
+	}
+}
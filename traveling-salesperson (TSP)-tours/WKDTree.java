@@ -1,4 +1,9 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 
 /**
@@ -14,13 +19,19 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 	
 	private Node root;
 	private int size;
+	private int visited; // nodes visited by the last nearest-neighbor search
+	private Metrics metrics = Metrics.NONE; // see setMetrics
+	private final DistanceMetric metric; // distances of the queries
+	private Node cleared; // the tree removed by clear, whose nodes build reuses
+	private final ArrayList<InternalNode> spareInternal = new ArrayList<InternalNode>(); // (see build)
+	private final ArrayList<ExternalNode> spareExternal = new ArrayList<ExternalNode>();
 	
 	private abstract class Node { // generic node (purely abstract)
 		
 		// -----------------------------------------------------------------
 		// Standard dictionary helpers
 		// -----------------------------------------------------------------
-		abstract LPoint find(Point2D pt);
+		abstract LPoint find(Point2D pt, Metrics.Probe p);
 		
 		abstract Node insert(LPoint pt) throws Exception;
 		
@@ -41,9 +52,13 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 		
 		abstract LPoint findLargerY(float y, LPoint best);
 		
-		abstract LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best);
+		abstract LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best, Metrics.Probe p);
 		
-		abstract ArrayList<LPoint> circularRange(Point2D center, float sqRadius);
+		abstract ArrayList<LPoint> circularRange(Point2D center, float sqRadius, Metrics.Probe p);
+		
+		abstract void nearest(Point2D q, int k, double factor, PriorityQueue<LPoint> heap);
+		
+		abstract LPoint approxNN(Point2D q, double factor, LPoint best);
 	}
 	private class InternalNode extends Node {
 		
@@ -66,13 +81,17 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 		/**
 		 * Find point in this subtree
 		 */
-		LPoint find(Point2D pt) { 
+		LPoint find(Point2D pt, Metrics.Probe p) { 
+			if (Metrics.ENABLED)
+				p.visited++;
 			if (wrapper.contains(pt)) {
 				if (pt.get(cutDim) < cutVal)
-					return left.find(pt);
+					return left.find(pt, p);
 				else
-					return right.find(pt);
+					return right.find(pt, p);
 			}
+			if (Metrics.ENABLED)
+				p.pruned++;
 			return null;
 		}
 		
@@ -205,12 +224,15 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 		 * Circular range reporting for a disk of a given squared radius about a given
 		 * center point.
 		 */
-		ArrayList<LPoint> circularRange(Point2D center, float sqRadius) {
+		ArrayList<LPoint> circularRange(Point2D center, float sqRadius, Metrics.Probe p) {
 			ArrayList<LPoint> list = new ArrayList<LPoint>();
-			if (wrapper.distanceSq(center) <= sqRadius) {
-				list.addAll(left.circularRange(center, sqRadius));
-				list.addAll(right.circularRange(center, sqRadius));
-			}
+			if (Metrics.ENABLED)
+				p.visited++;
+			if (metric.distanceSq(center, wrapper) <= sqRadius) {
+				list.addAll(left.circularRange(center, sqRadius, p));
+				list.addAll(right.circularRange(center, sqRadius, p));
+			} else if (Metrics.ENABLED)
+				p.pruned++;
 			return list;
 		}
 		
@@ -234,15 +256,61 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 		 * radius of the disk is sqRadius. Among the points whose squared distance to q is strictly
 		 * more than zero and strictly less than sqRadius,
 		 */
-		LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best) {
-			if(wrapper.distanceSq(q) >= Math.pow(sqRadius, 2))
+		LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best, Metrics.Probe p) {
+			if (Metrics.ENABLED)
+				p.visited++;
+			double bound = metric.distanceSq(q, wrapper);
+			if(bound >= Math.pow(sqRadius, 2)) {
+				if (Metrics.ENABLED)
+					p.pruned++;
 				return best;
+			}
 			if (best != null) {
-				if(wrapper.distanceSq(q) > q.distanceSq(best.getPoint2D()))
+				if(bound > metric.distanceSq(q, best.getPoint2D())) {
+					if (Metrics.ENABLED)
+						p.pruned++;
 					return best;
+				}
+			}
+			best = left.fixedRadNN(q, sqRadius, best, p);
+			best = right.fixedRadNN(q, sqRadius, best, p);
+			return best;
+		}
+		
+		/**
+		 * k-nearest neighbors: the heap holds the best k so far, farthest on top.
+		 * The closer child is visited first so that the other one is more likely
+		 * to be pruned. A subtree is pruned once its wrapper, with squared
+		 * distances scaled by factor = (1+eps)^2, is no closer than the k-th best.
+		 */
+		void nearest(Point2D q, int k, double factor, PriorityQueue<LPoint> heap) {
+			visited++;
+			if (heap.size() == k && metric.distanceSq(q, wrapper) * factor >= metric.distanceSq(q, heap.peek().getPoint2D()))
+				return;
+			if (metric.distanceSq(q, left.getWrapper()) <= metric.distanceSq(q, right.getWrapper())) {
+				left.nearest(q, k, factor, heap);
+				right.nearest(q, k, factor, heap);
+			} else {
+				right.nearest(q, k, factor, heap);
+				left.nearest(q, k, factor, heap);
+			}
+		}
+		
+		/**
+		 * Approximate nearest neighbor (other than q itself). Same pruning rule
+		 * as nearest with k = 1.
+		 */
+		LPoint approxNN(Point2D q, double factor, LPoint best) {
+			visited++;
+			if (best != null && metric.distanceSq(q, wrapper) * factor >= metric.distanceSq(q, best.getPoint2D()))
+				return best;
+			if (metric.distanceSq(q, left.getWrapper()) <= metric.distanceSq(q, right.getWrapper())) {
+				best = left.approxNN(q, factor, best);
+				best = right.approxNN(q, factor, best);
+			} else {
+				best = right.approxNN(q, factor, best);
+				best = left.approxNN(q, factor, best);
 			}
-			best = left.fixedRadNN(q, sqRadius, best);
-			best = right.fixedRadNN(q, sqRadius, best);
 			return best;
 		}
 	}
@@ -267,7 +335,11 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 		/**
 		 * Find point in external node.
 		 */
-		LPoint find(Point2D pt) { 
+		LPoint find(Point2D pt, Metrics.Probe p) { 
+			if (Metrics.ENABLED) {
+				p.visited++;
+				p.leaves++;
+			}
 			if(thisPt.getPoint2D().equals(pt))
 				return thisPt;
 			else
@@ -391,9 +463,13 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 		 * Circular range reporting for a disk of a given squared radius about a given
 		 * center point.
 		 */
-		ArrayList<LPoint> circularRange(Point2D center, float sqRadius) {
+		ArrayList<LPoint> circularRange(Point2D center, float sqRadius, Metrics.Probe p) {
 			ArrayList<LPoint> list = new ArrayList<LPoint>();
-			if (center.distanceSq(thisPt.getPoint2D()) <= sqRadius)
+			if (Metrics.ENABLED) {
+				p.visited++;
+				p.leaves++;
+			}
+			if (metric.distanceSq(center, thisPt.getPoint2D()) <= sqRadius)
 				list.add(thisPt);
 			return list;
 		}
@@ -414,14 +490,18 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 		}
 		
 		@Override
-		LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best) {
+		LPoint fixedRadNN(Point2D q, double sqRadius, LPoint best, Metrics.Probe p) {
+			if (Metrics.ENABLED) {
+				p.visited++;
+				p.leaves++;
+			}
 			if (thisPt.getX() != q.getX() || thisPt.getY() != q.getY()) {
-				if (q.distanceSq(thisPt.getPoint2D()) < Math.pow(sqRadius, 2)) {
+				if (metric.distanceSq(q, thisPt.getPoint2D()) < Math.pow(sqRadius, 2)) {
 					if (best == null)
 						return thisPt;
-					if (q.distanceSq(thisPt.getPoint2D()) < q.distanceSq(best.getPoint2D()))
+					if (metric.distanceSq(q, thisPt.getPoint2D()) < metric.distanceSq(q, best.getPoint2D()))
 						return thisPt;
-					else if (q.distanceSq(thisPt.getPoint2D()) == q.distanceSq(best.getPoint2D())) {
+					else if (metric.distanceSq(q, thisPt.getPoint2D()) == metric.distanceSq(q, best.getPoint2D())) {
 						if (thisPt.getX() < best.getX())
 							return thisPt;
 						else if (thisPt.getX() == best.getX()) {
@@ -433,6 +513,25 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 			}
 			return best;
 		}
+		
+		void nearest(Point2D q, int k, double factor, PriorityQueue<LPoint> heap) {
+			visited++;
+			if (heap.size() < k)
+				heap.add(thisPt);
+			else if (metric.distanceSq(q, thisPt.getPoint2D()) < metric.distanceSq(q, heap.peek().getPoint2D())) {
+				heap.poll();
+				heap.add(thisPt);
+			}
+		}
+		
+		LPoint approxNN(Point2D q, double factor, LPoint best) {
+			visited++;
+			if (thisPt.getPoint2D().equals(q))
+				return best;
+			if (best == null || metric.distanceSq(q, thisPt.getPoint2D()) < metric.distanceSq(q, best.getPoint2D()))
+				return thisPt;
+			return best;
+		}
 	}
 
 	// -----------------------------------------------------------------
@@ -440,10 +539,24 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 	// -----------------------------------------------------------------
 
 	public WKDTree() { 
+		this(DistanceMetric.PLANAR);
+	}
+	
+	/**
+	 * A tree whose queries (nearest neighbors, fixedRadNN, circularRange)
+	 * measure distances with the given metric. The structure itself does not
+	 * depend on the metric: cuts and wrappers are still taken along x and y.
+	 * 
+	 * @param metric The distance metric
+	 */
+	public WKDTree(DistanceMetric metric) { 
+		this.metric = metric;
 		root = null;
 		size = 0;
 	}
 	
+	public DistanceMetric getDistanceMetric() { return metric; }
+	
 	/**
 	 * Find an point in the tree. Note that the point being deleted does not need to
 	 * match fully. It suffices that it has enough information to satisfy the
@@ -455,8 +568,11 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 	public LPoint find(Point2D pt) { /* ... */
 		if (root == null)
 			return null; 
-		else
-			return root.find(pt);
+		Metrics.Probe p = Metrics.probe();
+		LPoint result = root.find(pt, p);
+		if (Metrics.ENABLED)
+			report(p, "spatial.find.visited", "spatial.find.leaves", "spatial.find.pruned");
+		return result;
 	}
 	
 	/**
@@ -501,13 +617,177 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 	}
 	
 	/**
-	 * Remove all items, resulting in an empty tree
+	 * Remove all items, resulting in an empty tree. The nodes are kept until
+	 * the next build, which reuses them.
 	 */
 	public void clear() { 
+		if (root != null)
+			cleared = root;
 		root = null;  
 		size = 0;
 	}
 	
+	/**
+	 * Replace the contents of the tree with the given points. The tree is built
+	 * top-down by splitting each subset at the median of its wider dimension.
+	 * The points are sorted once by x and once by y, and each split partitions
+	 * both orders, so the build costs O(n log n) and yields a tree of height
+	 * log n instead of the insertion-order dependent shape produced by insert.
+	 * The nodes of the tree it replaces (or of the one removed by the last
+	 * clear), wrappers included, are reused, so rebuilding a tree of the same
+	 * size allocates no nodes.
+	 *
+	 * @param pts The points to store
+	 * @throws Exception if two points have the same coordinates
+	 */
+	public void build(Collection<LPoint> pts) throws Exception {
+		ArrayList<LPoint> list = new ArrayList<LPoint>(pts);
+		int n = list.size();
+		if (n == 0) {
+			clear();
+			return;
+		}
+		Integer[] sortX = new Integer[n];
+		Integer[] sortY = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			sortX[i] = i;
+			sortY[i] = i;
+		}
+		Arrays.sort(sortX, Comparator.comparingDouble((Integer i) -> list.get(i).getX()));
+		Arrays.sort(sortY, Comparator.comparingDouble((Integer i) -> list.get(i).getY()));
+		int[] byX = new int[n];
+		int[] byY = new int[n];
+		for (int i = 0; i < n; i++) {
+			byX[i] = sortX[i];
+			byY[i] = sortY[i];
+		}
+		// duplicates are looked for first (among points of equal x), as the
+		// build below overwrites the nodes of the current tree
+		double[] ys = new double[n];
+		for (int lo = 0, hi; lo < n; lo = hi) {
+			for (hi = lo + 1; hi < n && list.get(byX[hi]).getX() == list.get(byX[lo]).getX(); hi++)
+				ys[hi] = list.get(byX[hi]).getY();
+			ys[lo] = list.get(byX[lo]).getY();
+			Arrays.sort(ys, lo, hi);
+			for (int k = lo + 1; k < hi; k++) {
+				if (ys[k] == ys[k - 1])
+					throw new Exception("Insertion of point with duplicate coordinates");
+			}
+		}
+		recycle(root);
+		recycle(cleared);
+		cleared = null;
+		try {
+			root = build(list, byX, byY, new int[n], new boolean[n], 0, n);
+		} finally {
+			spareInternal.clear(); // (the unused ones)
+			spareExternal.clear();
+		}
+		size = n;
+	}
+	
+	/**
+	 * helper method for build: builds the subtree for positions [lo, hi) of the
+	 * two sorted orders, which hold the same set of points
+	 */
+	private Node build(ArrayList<LPoint> pts, int[] byX, int[] byY, int[] temp, boolean[] isLeft,
+			int lo, int hi) throws Exception {
+		if (hi - lo == 1) {
+			if (spareExternal.isEmpty())
+				return new ExternalNode(pts.get(byX[lo]));
+			ExternalNode leaf = spareExternal.remove(spareExternal.size() - 1);
+			leaf.thisPt = pts.get(byX[lo]);
+			return leaf;
+		}
+		// same rule as ExternalNode.insert: cut along the wider side
+		double widthX = pts.get(byX[hi - 1]).getX() - pts.get(byX[lo]).getX();
+		double widthY = pts.get(byY[hi - 1]).getY() - pts.get(byY[lo]).getY();
+		int cutDim = (widthX >= widthY ? 0 : 1);
+		if (Math.max(widthX, widthY) == 0)
+			throw new Exception("Insertion of point with duplicate coordinates");
+		int[] sorted = (cutDim == 0 ? byX : byY);
+		int[] other = (cutDim == 0 ? byY : byX);
+		// move the split off the median until it separates distinct values
+		int mid = lo + (hi - lo) / 2;
+		int down = mid, up = mid;
+		while (down > lo && pts.get(sorted[down - 1]).get(cutDim) == pts.get(sorted[down]).get(cutDim))
+			down--;
+		while (up < hi && pts.get(sorted[up - 1]).get(cutDim) == pts.get(sorted[up]).get(cutDim))
+			up++;
+		if (down == lo || (up < hi && up - mid < mid - down))
+			mid = up;
+		else
+			mid = down;
+		double lowVal = pts.get(sorted[mid - 1]).get(cutDim);
+		double highVal = pts.get(sorted[mid]).get(cutDim);
+		double cutVal = (lowVal + highVal) / 2;
+		if (cutVal <= lowVal) // adjacent doubles
+			cutVal = highVal;
+		// stable partition of the other order into the same two halves
+		for (int k = lo; k < hi; k++)
+			isLeft[sorted[k]] = (k < mid);
+		int next = lo;
+		for (int k = lo; k < hi; k++) {
+			if (isLeft[other[k]])
+				temp[next++] = other[k];
+		}
+		for (int k = lo; k < hi; k++) {
+			if (!isLeft[other[k]])
+				temp[next++] = other[k];
+		}
+		System.arraycopy(temp, lo, other, lo, hi - lo);
+		Node left = build(pts, byX, byY, temp, isLeft, lo, mid);
+		Node right = build(pts, byX, byY, temp, isLeft, mid, hi);
+		if (spareInternal.isEmpty())
+			return new InternalNode(cutDim, cutVal, left, right);
+		InternalNode node = spareInternal.remove(spareInternal.size() - 1);
+		node.cutDim = cutDim;
+		node.cutVal = cutVal;
+		node.left = left;
+		node.right = right;
+		for (int i = 0; i < 2; i++) { // the wrapper, in place
+			node.wrapper.low.set(i, Math.min(low(left, i), low(right, i)));
+			node.wrapper.high.set(i, Math.max(high(left, i), high(right, i)));
+		}
+		return node;
+	}
+
+	/**
+	 * helpers for build: the sides of the wrapper of a subtree
+	 */
+	private double low(Node p, int i) {
+		return (p instanceof WKDTree.ExternalNode ? ((ExternalNode) p).thisPt.get(i)
+				: ((InternalNode) p).wrapper.low.get(i));
+	}
+
+	private double high(Node p, int i) {
+		return (p instanceof WKDTree.ExternalNode ? ((ExternalNode) p).thisPt.get(i)
+				: ((InternalNode) p).wrapper.high.get(i));
+	}
+
+	/**
+	 * helper method for build: adds the nodes of a subtree to the spare
+	 * lists (breadth first, with the list of internal nodes as the queue)
+	 */
+	private void recycle(Node p) {
+		if (p == null)
+			return;
+		int k = spareInternal.size();
+		spare(p);
+		for (; k < spareInternal.size(); k++) {
+			InternalNode q = spareInternal.get(k);
+			spare(q.left);
+			spare(q.right);
+		}
+	}
+
+	private void spare(Node p) {
+		if (p instanceof WKDTree.InternalNode)
+			spareInternal.add((InternalNode) p);
+		else
+			spareExternal.add((ExternalNode) p);
+	}
+	
 	
 	public int size() { return size; }
 	
@@ -586,15 +866,151 @@ public class WKDTree<LPoint extends LabeledPoint2D> {
 	public ArrayList<LPoint> circularRange(Point2D center, float sqRadius) { 
 		if (root == null)
 			return new ArrayList<LPoint>();
-		else
-			return root.circularRange(center, sqRadius);
+		Metrics.Probe p = Metrics.probe();
+		ArrayList<LPoint> result = root.circularRange(center, sqRadius, p);
+		if (Metrics.ENABLED)
+			report(p, "spatial.circularRange.visited", "spatial.circularRange.leaves", "spatial.circularRange.pruned");
+		return result;
 	}
 	
 	public LPoint fixedRadNN(Point2D center, double sqRadius) { 
 		if (root == null)
 			return null;
-		else 
-			return root.fixedRadNN(center, sqRadius, null);
+		Metrics.Probe p = Metrics.probe();
+		LPoint result = root.fixedRadNN(center, sqRadius, null, p);
+		if (Metrics.ENABLED)
+			report(p, "spatial.fixedRadNN.visited", "spatial.fixedRadNN.leaves", "spatial.fixedRadNN.pruned");
+		return result;
+	}
+	
+	/**
+	 * Sets the sink of the per-query work of find, fixedRadNN and
+	 * circularRange: nodes visited, points tested and subtrees pruned by
+	 * their wrapper (see Metrics; nothing is counted unless Metrics.ENABLED).
+	 * 
+	 * @param metrics The sink, or null for none
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = (metrics == null ? Metrics.NONE : metrics);
+	}
+	
+	private void report(Metrics.Probe p, String visitedName, String leavesName, String prunedName) {
+		metrics.record(visitedName, p.visited);
+		metrics.record(leavesName, p.leaves);
+		metrics.record(prunedName, p.pruned);
+	}
+
+	/**
+	 * Find the k nearest neighbors of a query point.
+	 * 
+	 * @param q The query point.
+	 * @param k The number of neighbors.
+	 * @return Up to k points, nearest first.
+	 */
+	public ArrayList<LPoint> nearest(Point2D q, int k) {
+		return approxNearest(q, k, 0);
+	}
+	
+	/**
+	 * Find k approximate nearest neighbors of a query point: the i-th point
+	 * returned is within a factor (1+eps) of the distance of the true i-th
+	 * nearest neighbor. Larger eps prunes more subtrees (see getNodesVisited).
+	 * 
+	 * @param q The query point.
+	 * @param k The number of neighbors.
+	 * @param eps The allowed relative error (0 for an exact search).
+	 * @return Up to k points, nearest first.
+	 */
+	public ArrayList<LPoint> approxNearest(Point2D q, int k, double eps) {
+		PriorityQueue<LPoint> heap = new PriorityQueue<LPoint>(k + 1,
+				Comparator.comparingDouble((LPoint p) -> metric.distanceSq(q, p.getPoint2D())).reversed());
+		visited = 0;
+		if (root != null && k > 0)
+			root.nearest(q, k, (1 + eps) * (1 + eps), heap);
+		ArrayList<LPoint> result = new ArrayList<LPoint>(heap);
+		result.sort(Comparator.comparingDouble((LPoint p) -> metric.distanceSq(q, p.getPoint2D())));
+		return result;
+	}
+	
+	/**
+	 * Find an approximate nearest neighbor of a query point, other than a point
+	 * at q itself: its distance to q is at most (1+eps) times the distance of
+	 * the true nearest neighbor.
+	 * 
+	 * @param q The query point.
+	 * @param eps The allowed relative error (0 for an exact search).
+	 * @return The neighbor or null if there is none.
+	 */
+	public LPoint approxNN(Point2D q, double eps) {
+		visited = 0;
+		if (root == null)
+			return null;
+		else
+			return root.approxNN(q, (1 + eps) * (1 + eps), null);
+	}
+	
+	/**
+	 * Make a read-only copy of the tree in a flat, breadth-first array layout
+	 * (see StaticWKDTree). Later changes to this tree do not affect the copy.
+	 * The copy only measures planar distances, so only planar trees can be
+	 * frozen.
+	 *
+	 * @return The frozen copy
+	 * @throws Exception If the tree does not measure planar distances
+	 */
+	public StaticWKDTree<LPoint> freeze() throws Exception {
+		if (metric != DistanceMetric.PLANAR)
+			throw new Exception("Only planar trees can be frozen");
+		int nodes = (size == 0 ? 0 : 2 * size - 1);
+		int[] cutDim = new int[nodes];
+		double[] cutVal = new double[nodes];
+		double[] box = new double[4 * nodes];
+		int[] child = new int[nodes];
+		double[] coord = new double[2 * size];
+		Object[] points = new Object[size];
+		int height = 0;
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		ArrayDeque<Integer> depth = new ArrayDeque<Integer>();
+		if (root != null) {
+			queue.add(root);
+			depth.add(0);
+		}
+		int next = 1, leaves = 0; // next free node index, next free point index
+		for (int i = 0; !queue.isEmpty(); i++) {
+			Node node = queue.poll();
+			int d = depth.poll();
+			height = Math.max(height, d);
+			Rectangle2D wrapper = node.getWrapper();
+			box[4 * i] = wrapper.getLow().getX();
+			box[4 * i + 1] = wrapper.getLow().getY();
+			box[4 * i + 2] = wrapper.getHigh().getX();
+			box[4 * i + 3] = wrapper.getHigh().getY();
+			if (node instanceof WKDTree.InternalNode) {
+				InternalNode in = (InternalNode) node;
+				cutDim[i] = in.cutDim;
+				cutVal[i] = in.cutVal;
+				child[i] = next;
+				next += 2;
+				queue.add(in.left);
+				queue.add(in.right);
+				depth.add(d + 1);
+				depth.add(d + 1);
+			} else {
+				LPoint pt = ((ExternalNode) node).thisPt;
+				cutDim[i] = -1;
+				child[i] = leaves;
+				coord[2 * leaves] = pt.getX();
+				coord[2 * leaves + 1] = pt.getY();
+				points[leaves++] = pt;
+			}
+		}
+		return new StaticWKDTree<LPoint>(cutDim, cutVal, box, child, coord, points, height);
 	}
+	
+	/**
+	 * Number of nodes visited by the last nearest, approxNearest or approxNN
+	 * search.
+	 */
+	public int getNodesVisited() { return visited; }
 
 }
@@ -0,0 +1,140 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * CaseBenchmark
+ *
+ * Base of the benchmarks: every benchmark method runs one case of
+ * TourBenchmarks (see name) on every kind of instance and size. Each
+ * invocation first prepares a batch (not measured), then runs it, so the
+ * score is the time per batch. As the size of a batch depends on the case
+ * and on n, two counters give the results per operation:
+ *
+ *   ops         time per operation
+ *   bytesPerOp  bytes allocated per operation by all threads (the batch
+ *               and any workers it uses, not its preparation)
+ *
+ * The runner (benchmarks.Main) also enables JMH's GC profiler, whose
+ * allocation rates include the preparation. The forks get a 3 GB heap for
+ * the instances of 10^6 points (10^7 for the kernels).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Xmx3g" })
+public abstract class CaseBenchmark {
+
+	/**
+	 * Operations done, reported per time unit.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Ops {
+		public long ops;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			ops = 0;
+		}
+	}
+
+	/**
+	 * Bytes allocated per operation, over the batches of an iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Allocation {
+		private static final com.sun.management.ThreadMXBean THREADS =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		private long bytes, ops, start;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			bytes = ops = 0;
+		}
+
+		public double bytesPerOp() {
+			return (ops == 0 ? 0 : (double) bytes / ops);
+		}
+
+		/**
+		 * bytes allocated so far by the live threads
+		 */
+		private static long allocated() {
+			long sum = 0;
+			for (long b : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds()))
+				sum += Math.max(0, b);
+			return sum;
+		}
+	}
+
+	@Param({ "uniform", "clustered", "airports" })
+	public String data;
+
+	private Cases cases;
+	private Random r;
+	private Cases.Batch batch;
+	private int done; // operations of the last batch
+	private Allocation allocation;
+
+	/**
+	 * The case run by a benchmark method of this class.
+	 */
+	protected abstract String name(String method);
+
+	/**
+	 * Number of points of the instance (a parameter of each subclass, as
+	 * the sizes differ).
+	 */
+	protected abstract int size();
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+		cases = Cases.load();
+		r = new Random(7);
+	}
+
+	@Setup(Level.Invocation)
+	public void prepare(BenchmarkParams params, Allocation allocation) throws Exception {
+		String benchmark = params.getBenchmark();
+		batch = cases.prepare(name(benchmark.substring(benchmark.lastIndexOf('.') + 1)), data, size(), r);
+		this.allocation = allocation;
+		allocation.start = Allocation.allocated();
+	}
+
+	@TearDown(Level.Invocation)
+	public void measure() {
+		allocation.bytes += Allocation.allocated() - allocation.start;
+		allocation.ops += done;
+	}
+
+	/**
+	 * Runs the prepared batch.
+	 */
+	protected int run(Ops ops) throws Exception {
+		done = batch.run();
+		ops.ops += done;
+		return done;
+	}
+}
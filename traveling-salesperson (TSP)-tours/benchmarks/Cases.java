@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * Cases
+ *
+ * The benchmark cases, as the JMH benchmarks of this package see them. JMH
+ * does not accept benchmark classes in the default package, and classes in
+ * a package cannot name those of the default package, so the cases are
+ * prepared by TourBenchmarks (in the default package, next to the classes
+ * it measures), which implements this interface and is loaded by name.
+ */
+public interface Cases {
+
+	/**
+	 * One batch of operations of a case, prepared and not yet run.
+	 */
+	interface Batch {
+		/**
+		 * Runs the batch (the measured part).
+		 *
+		 * @return Number of operations done
+		 */
+		int run() throws Exception;
+	}
+
+	/**
+	 * Prepares a batch (not measured: a fresh tour or tree, random query
+	 * keys, ...).
+	 *
+	 * @param name The case, e.g. "tour.append"
+	 * @param data The kind of instance (see Instances.KINDS)
+	 * @param n Number of points of the instance
+	 * @param r Source of the random queries
+	 * @return The batch
+	 * @throws Exception If there is no such case
+	 */
+	Batch prepare(String name, String data, int n, Random r) throws Exception;
+
+	/**
+	 * The cases of TourBenchmarks.
+	 */
+	static Cases load() throws Exception {
+		return (Cases) Class.forName("TourBenchmarks").getDeclaredConstructor().newInstance();
+	}
+}
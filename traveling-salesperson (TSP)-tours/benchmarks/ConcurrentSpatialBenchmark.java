@@ -0,0 +1,33 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * ConcurrentSpatialBenchmark
+ *
+ * Inserts into a ConcurrentWKDTree from several threads at once: the batch
+ * is split among worker threads that live as long as the fork, so that
+ * their allocation is counted too, and an exception in a worker fails the
+ * benchmark. The thread counts are those TourBenchmarks has cases for, and
+ * sizes stop at 10^6 as for SpatialBenchmark.
+ */
+public class ConcurrentSpatialBenchmark extends CaseBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int n;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	protected String name(String method) {
+		return "concurrentSpatial." + method + "/" + threads;
+	}
+
+	protected int size() { return n; }
+
+	@Benchmark
+	public int insert(Ops ops) throws Exception {
+		return run(ops);
+	}
+}
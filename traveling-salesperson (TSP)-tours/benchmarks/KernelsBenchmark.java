@@ -0,0 +1,41 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * KernelsBenchmark
+ *
+ * DistanceKernels, scalar and vectorized (the forks add the
+ * jdk.incubator.vector module, see CaseBenchmark). The kernels work on
+ * packed coordinate arrays only, so they run up to 10^7 points.
+ */
+public class KernelsBenchmark extends CaseBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int n;
+
+	@Param({ "scalar", "vector" })
+	public String variant;
+
+	protected String name(String method) {
+		return "kernels." + method + "/" + variant;
+	}
+
+	protected int size() { return n; }
+
+	@Benchmark
+	public int distancesSq(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int edgeLengthsSq(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int twoOptDeltas(Ops ops) throws Exception {
+		return run(ops);
+	}
+}
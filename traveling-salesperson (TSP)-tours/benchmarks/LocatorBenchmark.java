@@ -0,0 +1,45 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * LocatorBenchmark
+ *
+ * AAXTree as the locator of a Tour, keyed by label (locator.* cases).
+ *
+ * Sizes stop at 10^6, as for TourBenchmark: the 10^7 points alone take
+ * about 1.5 GB, and the insert and delete cases build a fresh tree of all
+ * of them for every invocation.
+ */
+public class LocatorBenchmark extends CaseBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int n;
+
+	protected String name(String method) {
+		return "locator." + method;
+	}
+
+	protected int size() { return n; }
+
+	@Benchmark
+	public int find(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int insert(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int delete(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int findSmaller(Ops ops) throws Exception {
+		return run(ops);
+	}
+}
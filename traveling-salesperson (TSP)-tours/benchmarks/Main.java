@@ -0,0 +1,25 @@
+package benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * Main
+ *
+ * Runs the benchmarks with JMH's command line (see org.openjdk.jmh.Main),
+ * adding the GC profiler (-prof gc) unless profilers are given:
+ *
+ *   java -jar target/benchmarks.jar [options] [regex]
+ */
+public class Main {
+
+	public static void main(String[] args) throws Exception {
+		if (!Arrays.asList(args).contains("-prof")) {
+			String[] all = new String[args.length + 2];
+			all[0] = "-prof";
+			all[1] = "gc";
+			System.arraycopy(args, 0, all, 2, args.length);
+			args = all;
+		}
+		org.openjdk.jmh.Main.main(args);
+	}
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * SpatialBenchmark
+ *
+ * WKDTree as the spatial index of a Tour (spatial.* cases), and its frozen
+ * copy, StaticWKDTree (the frozen* methods), on the same queries.
+ *
+ * Sizes stop at 10^6, as for TourBenchmark: 10^7 points and their tree
+ * (whose every internal node also holds a wrapper) do not fit the heap of
+ * the forks.
+ */
+public class SpatialBenchmark extends CaseBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int n;
+
+	protected String name(String method) {
+		return "spatial." + method;
+	}
+
+	protected int size() { return n; }
+
+	@Benchmark
+	public int find(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int insert(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int delete(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int circularRange(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int fixedRadNN(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int nearest(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int frozenFind(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int frozenCircularRange(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int frozenFixedRadNN(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int frozenNearest(Ops ops) throws Exception {
+		return run(ops);
+	}
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * TourBenchmark
+ *
+ * The linear-time operations of Tour (tour.* cases of TourBenchmarks).
+ *
+ * Sizes stop at 10^6: 10^7 points take about 1.5 GB of heap and a tour's
+ * locator and spatial index about 3 GB more (about 150 and 300 bytes per
+ * point), beyond the heap of the forks (see CaseBenchmark), and building
+ * the fresh structure of every invocation would take minutes.
+ */
+public class TourBenchmark extends CaseBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int n;
+
+	protected String name(String method) {
+		return "tour." + method;
+	}
+
+	protected int size() { return n; }
+
+	@Benchmark
+	public int append(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int appendAll(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int cost(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int reverse(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int twoOpt(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int twoOptNN(Ops ops) throws Exception {
+		return run(ops);
+	}
+}
@@ -0,0 +1,40 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * TourOptimizerBenchmark
+ *
+ * The whole-tour optimizers of Tour, run to convergence on a fresh tour per
+ * invocation. They take quadratic time (allTwoOpt tests all n^2 / 2 moves
+ * per pass, and passes repeat until none improves), so sizes stop at 10^4:
+ * one invocation at 10^5 would take hours, and TourBenchmarks refuses more
+ * than MAX_QUADRATIC (20000) points.
+ */
+public class TourOptimizerBenchmark extends CaseBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int n;
+
+	protected String name(String method) {
+		return "tour." + method;
+	}
+
+	protected int size() { return n; }
+
+	@Benchmark
+	public int allTwoOpt(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int bestTwoOpt(Ops ops) throws Exception {
+		return run(ops);
+	}
+
+	@Benchmark
+	public int windowOpt(Ops ops) throws Exception {
+		return run(ops);
+	}
+}
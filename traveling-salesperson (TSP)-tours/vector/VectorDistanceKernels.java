@@ -0,0 +1,72 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * DistanceKernels on the JDK Vector API (incubator module
+ * jdk.incubator.vector): each loop handles SPECIES.length() points per
+ * iteration (e.g., 8 doubles with AVX-512) and the remainder one at a time,
+ * with the same formulas as DistanceKernels.Scalar. Loaded by
+ * DistanceKernels.get(); see there for how to compile and run with it.
+ */
+public class VectorDistanceKernels extends DistanceKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	public void distancesSq(double qx, double qy, double[] x, double[] y, int from, int to, double[] out) {
+		DoubleVector vqx = DoubleVector.broadcast(SPECIES, qx), vqy = DoubleVector.broadcast(SPECIES, qy);
+		int k = from;
+		for (int end = from + SPECIES.loopBound(to - from); k < end; k += SPECIES.length()) {
+			DoubleVector dx = DoubleVector.fromArray(SPECIES, x, k).sub(vqx);
+			DoubleVector dy = DoubleVector.fromArray(SPECIES, y, k).sub(vqy);
+			dx.mul(dx).add(dy.mul(dy)).intoArray(out, k - from);
+		}
+		for (; k < to; k++) {
+			double dx = x[k] - qx, dy = y[k] - qy;
+			out[k - from] = dx * dx + dy * dy;
+		}
+	}
+
+	public void edgeLengthsSq(double[] x, double[] y, int n, double[] out) {
+		int k = 0;
+		// edges k -> k + 1 that do not wrap around
+		for (int end = SPECIES.loopBound(Math.max(0, n - 1)); k < end; k += SPECIES.length()) {
+			DoubleVector dx = DoubleVector.fromArray(SPECIES, x, k + 1).sub(DoubleVector.fromArray(SPECIES, x, k));
+			DoubleVector dy = DoubleVector.fromArray(SPECIES, y, k + 1).sub(DoubleVector.fromArray(SPECIES, y, k));
+			dx.mul(dx).add(dy.mul(dy)).intoArray(out, k);
+		}
+		for (; k < n; k++) {
+			int next = (k + 1 < n ? k + 1 : 0);
+			double dx = x[next] - x[k], dy = y[next] - y[k];
+			out[k] = dx * dx + dy * dy;
+		}
+	}
+
+	public void twoOptDeltas(double[] x, double[] y, double[] nx, double[] ny, int i, int from, int to,
+			double[] out) {
+		double xi = x[i], yi = y[i], xi1 = nx[i], yi1 = ny[i];
+		double ex = xi1 - xi, ey = yi1 - yi;
+		DoubleVector old1 = DoubleVector.broadcast(SPECIES, ex * ex + ey * ey);
+		DoubleVector vxi = DoubleVector.broadcast(SPECIES, xi), vyi = DoubleVector.broadcast(SPECIES, yi);
+		DoubleVector vxi1 = DoubleVector.broadcast(SPECIES, xi1), vyi1 = DoubleVector.broadcast(SPECIES, yi1);
+		int j = from;
+		for (int end = from + SPECIES.loopBound(to - from); j < end; j += SPECIES.length()) {
+			DoubleVector xj = DoubleVector.fromArray(SPECIES, x, j), yj = DoubleVector.fromArray(SPECIES, y, j);
+			DoubleVector xj1 = DoubleVector.fromArray(SPECIES, nx, j), yj1 = DoubleVector.fromArray(SPECIES, ny, j);
+			DoubleVector ax = xj.sub(vxi), ay = yj.sub(vyi);
+			DoubleVector bx = xj1.sub(vxi1), by = yj1.sub(vyi1);
+			DoubleVector cx = xj1.sub(xj), cy = yj1.sub(yj);
+			DoubleVector added = ax.mul(ax).add(ay.mul(ay)).add(bx.mul(bx).add(by.mul(by)));
+			DoubleVector removed = old1.add(cx.mul(cx).add(cy.mul(cy)));
+			added.sub(removed).intoArray(out, j - from);
+		}
+		double old = ex * ex + ey * ey;
+		for (; j < to; j++) {
+			double ax = x[j] - xi, ay = y[j] - yi;
+			double bx = nx[j] - xi1, by = ny[j] - yi1;
+			double cx = nx[j] - x[j], cy = ny[j] - y[j];
+			out[j - from] = ((ax * ax + ay * ay) + (bx * bx + by * by)) - (old + (cx * cx + cy * cy));
+		}
+	}
+
+	public String getName() { return "vector (" + SPECIES.length() + " lanes)"; }
+}